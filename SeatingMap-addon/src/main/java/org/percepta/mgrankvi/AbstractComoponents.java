@@ -74,4 +74,13 @@ public abstract class AbstractComoponents extends AbstractComponentContainer imp
         return null;
     }
 
+    /**
+     * Notify that rooms, tables or their lines changed below this component.
+     * Passed on to the parent so that the floor can drop its location index.
+     */
+    void geometryChanged() {
+        if (getParent() instanceof AbstractComoponents) {
+            ((AbstractComoponents) getParent()).geometryChanged();
+        }
+    }
 }
@@ -4,10 +4,13 @@ import com.vaadin.ui.Component;
 import org.percepta.mgrankvi.client.floor.FloorMapState;
 import org.percepta.mgrankvi.client.geometry.Line;
 import org.percepta.mgrankvi.client.geometry.Point;
+import org.percepta.mgrankvi.util.PolygonGrid;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 /**
@@ -16,6 +19,8 @@ import java.util.UUID;
 public class FloorMap extends AbstractComoponents {
 
     List<Room> rooms = new LinkedList<>();
+    // Point location index of rooms and tables, built on first use
+    private volatile Location location;
 
     public FloorMap() {
         setId(UUID.randomUUID().toString());
@@ -61,15 +66,33 @@ public class FloorMap extends AbstractComoponents {
         getState().lines.addAll(lines);
     }
 
+    /**
+     * Get floor map lines. Room lines are not included.
+     *
+     * @return unmodifiable list of map lines
+     */
+    public List<Line> getLines() {
+        return Collections.unmodifiableList(getState(false).lines);
+    }
+
     public void setLevel(final int level) {
         getState().level = level;
     }
 
+    public int getLevel() {
+        return getState(false).level;
+    }
+
     @Override
     protected FloorMapState getState() {
         return (FloorMapState) super.getState();
     }
 
+    @Override
+    protected FloorMapState getState(boolean markAsDirty) {
+        return (FloorMapState) super.getState(markAsDirty);
+    }
+
     /**
      * Set the position where this floor resides in relation to the origin point
      *
@@ -91,6 +114,7 @@ public class FloorMap extends AbstractComoponents {
         super.addComponent(c);
         if (c instanceof Room && !rooms.contains((Room) c)) {
             rooms.add((Room) c);
+            geometryChanged();
         }
     }
 
@@ -98,13 +122,21 @@ public class FloorMap extends AbstractComoponents {
     @Override
     public void removeComponent(Component c) {
         super.removeComponent(c);
-        rooms.remove(c);
+        if (rooms.remove(c)) {
+            geometryChanged();
+        }
     }
 
     @Override
     public void removeAllComponents() {
         super.removeAllComponents();
         rooms.clear();
+        geometryChanged();
+    }
+
+    @Override
+    void geometryChanged() {
+        location = null;
     }
 
     public List<Room> getRooms() {
@@ -116,4 +148,87 @@ public class FloorMap extends AbstractComoponents {
         rooms.forEach(room -> tables.addAll(room.getTables()));
         return tables;
     }
+
+    /**
+     * Find the room and table containing a point on this floor.
+     * <p>
+     * The first call after rooms or tables have changed builds a grid index of
+     * their outlines, after which each query tests only the few outlines near
+     * the point. Queries can run from several threads as long as the floor is
+     * not changed at the same time.
+     *
+     * @param point
+     *            point in floor coordinates
+     * @return result with this floor, the room and the table containing the
+     *         point, table is null if the point is only inside a room. Empty if
+     *         the point is in neither.
+     */
+    public Optional<SearchResult> locate(Point point) {
+        return locate(point.getX(), point.getY());
+    }
+
+    /**
+     * Find the room and table containing a point on this floor.
+     *
+     * @see #locate(Point)
+     */
+    public Optional<SearchResult> locate(double x, double y) {
+        Location current = location;
+        if (current == null) {
+            current = new Location(rooms);
+            location = current;
+        }
+        Table table = null;
+        Room room = null;
+        int tableIndex = current.tableGrid.locate(x, y);
+        if (tableIndex != -1) {
+            table = current.tables[tableIndex];
+            room = current.tableRooms[tableIndex];
+        } else {
+            int roomIndex = current.roomGrid.locate(x, y);
+            if (roomIndex == -1) {
+                return Optional.empty();
+            }
+            room = current.rooms[roomIndex];
+        }
+        SearchResult result = new SearchResult();
+        result.setFloor(this);
+        result.setRoom(room);
+        result.setTable(table);
+        return Optional.of(result);
+    }
+
+    /**
+     * Grid indexes of room and table outlines with the components for each
+     * polygon index.
+     */
+    private static class Location {
+
+        private final Room[] rooms;
+        private final PolygonGrid roomGrid;
+        private final Table[] tables;
+        // Room each table belongs to
+        private final Room[] tableRooms;
+        private final PolygonGrid tableGrid;
+
+        private Location(List<Room> roomList) {
+            rooms = roomList.toArray(new Room[roomList.size()]);
+            List<List<Line>> roomLines = new ArrayList<>(rooms.length);
+            List<Table> tableList = new ArrayList<>();
+            List<Room> tableRoomList = new ArrayList<>();
+            List<List<Line>> tableLines = new ArrayList<>();
+            for (Room room : rooms) {
+                roomLines.add(room.getLines());
+                for (Table table : room.getTables()) {
+                    tableList.add(table);
+                    tableRoomList.add(room);
+                    tableLines.add(table.getLines());
+                }
+            }
+            roomGrid = new PolygonGrid(roomLines);
+            tables = tableList.toArray(new Table[tableList.size()]);
+            tableRooms = tableRoomList.toArray(new Room[tableRoomList.size()]);
+            tableGrid = new PolygonGrid(tableLines);
+        }
+    }
 }
@@ -4,6 +4,7 @@ import com.vaadin.ui.Component;
 import org.percepta.mgrankvi.client.geometry.Line;
 import org.percepta.mgrankvi.client.room.RoomState;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
@@ -26,6 +27,14 @@ public class Room extends AbstractComoponents {
 
     public void addLines(List<Line> lines) {
         getState().lines = lines;
+        geometryChanged();
+    }
+
+    /**
+     * @return unmodifiable list of room lines
+     */
+    public List<Line> getLines() {
+        return Collections.unmodifiableList(getState(false).lines);
     }
 
     public void setId(String id) {
@@ -48,24 +57,33 @@ public class Room extends AbstractComoponents {
         return (RoomState) super.getState();
     }
 
+    @Override
+    protected RoomState getState(boolean markAsDirty) {
+        return (RoomState) super.getState(markAsDirty);
+    }
+
     @Override
     public void addComponent(Component c) {
         super.addComponent(c);
         if(c instanceof Table && !tables.contains((Table)c)) {
             tables.add((Table)c);
+            geometryChanged();
         }
     }
 
     @Override
     public void removeComponent(Component c) {
         super.removeComponent(c);
-        tables.remove(c);
+        if (tables.remove(c)) {
+            geometryChanged();
+        }
     }
 
     @Override
     public void removeAllComponents() {
         super.removeAllComponents();
         tables.clear();
+        geometryChanged();
     }
 
     public List<Table> getTables() {
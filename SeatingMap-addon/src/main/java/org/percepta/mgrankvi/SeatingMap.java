@@ -1,24 +1,49 @@
 package org.percepta.mgrankvi;
 
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import org.percepta.mgrankvi.client.geometry.Line;
+import org.percepta.mgrankvi.client.geometry.LineBuffer;
 import org.percepta.mgrankvi.client.geometry.Point;
 import org.percepta.mgrankvi.client.map.SeatingMapClientRpc;
 import org.percepta.mgrankvi.client.map.SeatingMapServerRpc;
-import org.percepta.mgrankvi.path.Dijkstra;
+import org.percepta.mgrankvi.occupancy.OccupancyTracker;
+import org.percepta.mgrankvi.path.AStar;
+import org.percepta.mgrankvi.path.BidirectionalDijkstra;
+import org.percepta.mgrankvi.path.ContractionHierarchy;
+import org.percepta.mgrankvi.path.DistanceMatrix;
+import org.percepta.mgrankvi.path.FloorHierarchy;
+import org.percepta.mgrankvi.path.GraphDijkstra;
+import org.percepta.mgrankvi.path.NearestTargets;
 import org.percepta.mgrankvi.path.Node;
+import org.percepta.mgrankvi.path.NodeRegistry;
+import org.percepta.mgrankvi.path.PathGraph;
+import org.percepta.mgrankvi.path.RouteCache;
+import org.percepta.mgrankvi.path.RouteMatch;
+import org.percepta.mgrankvi.path.RouteMode;
+import org.percepta.mgrankvi.util.DynamicKdTreeSearch;
+import org.percepta.mgrankvi.util.MutableNearestSearch;
 import org.percepta.mgrankvi.util.NearestSearch;
 import org.percepta.mgrankvi.util.PathMatrix;
+import org.percepta.mgrankvi.util.SegmentGrid;
+import org.percepta.mgrankvi.util.WallAwareNearestSearch;
 
 /**
  * @author Mikael Grankvist - Vaadin Ltd
@@ -26,9 +51,19 @@ import org.percepta.mgrankvi.util.PathMatrix;
 public class SeatingMap extends AbstractComoponents {
 
     private Map<Integer, FloorMap> floors = new HashMap<>();
-    // NodeId - Node map
-    private Map<Integer, Node> paths = new HashMap<>();
-    private Map<Integer, Integer> nodeToFloor = new HashMap<>();
+    // Path nodes by id and by position on floor
+    private NodeRegistry paths = new NodeRegistry();
+    // Frozen routing graph of paths, null when paths have changed
+    private volatile PathGraph pathGraph;
+    // Portal routing index and the floors changed since it was built
+    private volatile FloorHierarchy floorHierarchy;
+    private Set<Integer> changedFloors = new HashSet<>();
+    private boolean allFloorsChanged = true;
+    private volatile ContractionHierarchy contractionHierarchy;
+    // Bumped on every path change to invalidate cached routes
+    private volatile long graphVersion;
+    private RouteCache routeCache = new RouteCache();
+    private RouteMode routeMode = RouteMode.DIJKSTRA;
     // Floor, path Node Matrix
     private Map<Integer, NearestSearch> pathPoints = new HashMap<>();
     private Class<? extends NearestSearch> nearestImpl;
@@ -36,9 +71,10 @@ public class SeatingMap extends AbstractComoponents {
 
     private Integer visibleFloor;
     private boolean autoToggleName = true;
+    private boolean connectInLineOfSight = true;
 
     public SeatingMap() {
-        nearestImpl = PathMatrix.class;
+        nearestImpl = DynamicKdTreeSearch.class;
         registerRpc(new SeatingMapServerRpc() {
             @Override
             public void findByName(String name) {
@@ -149,6 +185,93 @@ public class SeatingMap extends AbstractComoponents {
         return Optional.ofNullable(getSingleByName(name));
     }
 
+    /**
+     * Find the room and table containing a point.
+     *
+     * @param point
+     *            point in floor coordinates
+     * @param floor
+     *            floor of the point
+     * @return room and table containing the point or empty optional
+     * @see FloorMap#locate(Point)
+     */
+    public Optional<SearchResult> locate(Point point, int floor) {
+        FloorMap map = floors.get(floor);
+        if (map == null) {
+            return Optional.empty();
+        }
+        return map.locate(point);
+    }
+
+    /**
+     * Create a tracker that marks tables occupied from live position fixes.
+     * The tracker sees the tables present now. Offer fixes to it from any
+     * thread and run it periodically, for example with a scheduled executor.
+     *
+     * @param occupiedMillis
+     *            time a table stays occupied after its last fix
+     * @param flushMillis
+     *            minimum time between updates sent to the tables
+     * @return new tracker for the tables of all floors
+     */
+    public OccupancyTracker createOccupancyTracker(long occupiedMillis,
+            long flushMillis) {
+        return new OccupancyTracker(floors.values(), occupiedMillis,
+                flushMillis);
+    }
+
+    /**
+     * Set the search algorithm used by {@link #getPath(int, int)}. Default is
+     * {@link RouteMode#DIJKSTRA}.
+     *
+     * @param routeMode
+     *            search algorithm to use
+     */
+    public void setRouteMode(RouteMode routeMode) {
+        this.routeMode = routeMode;
+    }
+
+    public RouteMode getRouteMode() {
+        return routeMode;
+    }
+
+    /**
+     * Set the nearest node search used for connecting tables to paths. The
+     * class needs a public no argument constructor. Default is
+     * {@link DynamicKdTreeSearch}, which is updated in place when paths are
+     * added. Other implementations are rebuilt with all nodes of the floor on
+     * every change.
+     * <p>
+     * The search of a floor is replaced the next time paths are added to it.
+     *
+     * @param nearestImpl
+     *            nearest search implementation class
+     */
+    public void setNearestImplementation(
+            Class<? extends NearestSearch> nearestImpl) {
+        this.nearestImpl = nearestImpl;
+    }
+
+    public Class<? extends NearestSearch> getNearestImplementation() {
+        return nearestImpl;
+    }
+
+    /**
+     * Set if tables should be connected to the closest path node that is not
+     * behind a floor or room wall. If no close node is in line of sight the
+     * nearest node is used. Default is true.
+     *
+     * @param connectInLineOfSight
+     *            true to avoid connecting tables through walls
+     */
+    public void setConnectTablesInLineOfSight(boolean connectInLineOfSight) {
+        this.connectInLineOfSight = connectInLineOfSight;
+    }
+
+    public boolean isConnectTablesInLineOfSight() {
+        return connectInLineOfSight;
+    }
+
     /**
      * Get all matches for searchString
      * 
@@ -195,8 +318,13 @@ public class SeatingMap extends AbstractComoponents {
      */
     public void addPaths(Collection<Node> nodes) {
         for (Node node : nodes) {
-            paths.put(node.getId(), node);
+            paths.register(node);
         }
+        pathsChanged();
+        allFloorsChanged = true;
+
+        nodes.stream().collect(Collectors.groupingBy(node -> node.level))
+                .forEach(this::indexNodes);
     }
 
     /**
@@ -224,6 +352,9 @@ public class SeatingMap extends AbstractComoponents {
         secondNode.orElseThrow(NodeNotFoundException::new);
 
         firstNode.get().connectNodes(secondNode.get(), weight);
+        pathsChanged();
+        changedFloors.add(floorOne);
+        changedFloors.add(floorTwo);
     }
 
     /**
@@ -238,67 +369,112 @@ public class SeatingMap extends AbstractComoponents {
         List<Node> nodes = new ArrayList<>();
 
         for (Line line : pathLines) {
-            Optional<Node> node = getNode(line.start, floor);
-
-            Node nodeStart;
-            if (node.isPresent()) {
-                nodeStart = node.get();
-            } else {
-                nodeStart = new Node(
-                        (int) (line.start.getX() + line.start.getY()) + floor,
-                        line.start.clonePoint());
-                paths.put(nodeStart.getId(), nodeStart);
-            }
-
-            node = getNode(line.end, floor);
-
-            Node nodeEnd;
-            if (node.isPresent()) {
-                nodeEnd = node.get();
-            } else {
-                nodeEnd = new Node((int) (line.end.getX() + line.end.getY()),
-                        line.end.clonePoint());
-                paths.put(nodeEnd.getId(), nodeEnd);
-            }
+            Node nodeStart = paths.getOrCreate(line.start, floor);
+            Node nodeEnd = paths.getOrCreate(line.end, floor);
 
             nodeStart.connectNodes(nodeEnd, 1);
 
             nodes.add(nodeStart);
             nodes.add(nodeEnd);
-            nodeToFloor.put(nodeStart.getId(), floor);
-            nodeToFloor.put(nodeEnd.getId(), floor);
         }
+        pathsChanged();
+        changedFloors.add(floor);
 
-        NearestSearch nearest;
-        try {
-            nearest = nearestImpl.getConstructor().newInstance();
-        } catch (InstantiationException | IllegalAccessException
-                | InvocationTargetException | NoSuchMethodException e) {
-            String msg = String.format(
-                    "Failed to create instance for nearest implementation '%s'. using PathMatrix.class instead",
-                    nearestImpl.getSimpleName());
-            Logger.getLogger("SeatingMap").log(Level.WARNING, msg, e);
-            nearest = new PathMatrix();
+        indexNodes(floor, nodes);
+    }
+
+    /**
+     * Add nodes to the nearest search of floor. Mutable searches are updated
+     * in place, others are rebuilt with all nodes of the floor. The search is
+     * recreated if the nearest implementation has been changed.
+     */
+    private void indexNodes(int floor, Collection<Node> nodes) {
+        NearestSearch nearest = pathPoints.get(floor);
+        if (nearest != null && nearest.getClass() == nearestImpl
+                && nearest instanceof MutableNearestSearch) {
+            nodes.forEach(((MutableNearestSearch) nearest)::add);
+            return;
         }
-        nearest.setNodes(nodes);
+        if (nearest == null || nearest.getClass() != nearestImpl) {
+            try {
+                nearest = nearestImpl.getConstructor().newInstance();
+            } catch (InstantiationException | IllegalAccessException
+                    | InvocationTargetException | NoSuchMethodException e) {
+                String msg = String.format(
+                        "Failed to create instance for nearest implementation '%s'. using PathMatrix.class instead",
+                        nearestImpl.getSimpleName());
+                Logger.getLogger("SeatingMap").log(Level.WARNING, msg, e);
+                nearest = new PathMatrix();
+            }
+        }
+        nearest.setNodes(paths.getNodes().stream()
+                .filter(node -> node.level == floor)
+                .collect(Collectors.toList()));
 
         pathPoints.put(floor, nearest);
     }
 
     /**
-     * Find closest node from given paths for all tables.
+     * Find closest node from given paths for all tables. Floors are handled in
+     * parallel on the common fork-join pool.
      */
     public void connectTablesToPaths() {
-        floors.entrySet().forEach(entry -> {
-            FloorMap floor = entry.getValue();
+        connectTablesToPaths(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Find closest node from given paths for all tables. Floors are handled in
+     * parallel on given pool and the time taken for each floor is logged on
+     * level FINE.
+     *
+     * @param pool
+     *            pool to run the floor searches in
+     */
+    public void connectTablesToPaths(ForkJoinPool pool) {
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(floors.size());
+        for (Map.Entry<Integer, FloorMap> entry : floors.entrySet()) {
             NearestSearch nearestSearch = pathPoints.get(entry.getKey());
-            floor.getTables().forEach(table -> {
-                Point centerPoint = table.getCenter();
-                Node nearest = nearestSearch.getNearest(centerPoint);
+            if (nearestSearch == null) {
+                continue;
+            }
+            int floor = entry.getKey();
+            List<Table> tables = entry.getValue().getTables();
+            Point[] centers = tables.stream().map(Table::getCenter)
+                    .toArray(Point[]::new);
+            LineBuffer walls = connectInLineOfSight
+                    ? getWalls(entry.getValue())
+                    : new LineBuffer(0);
+            tasks.add(pool.submit(() -> connectTables(floor, tables, centers,
+                    nearestSearch, walls)));
+        }
+        tasks.forEach(ForkJoinTask::join);
+    }
 
-                table.setClosestNodeId(nearest.getId());
-            });
-        });
+    private static LineBuffer getWalls(FloorMap floor) {
+        LineBuffer walls = LineBuffer.of(floor.getLines());
+        floor.getRooms()
+                .forEach(room -> room.getLines().forEach(walls::add));
+        return walls;
+    }
+
+    private static void connectTables(int floor, List<Table> tables,
+            Point[] centers, NearestSearch nearestSearch, LineBuffer walls) {
+        long start = System.nanoTime();
+        if (walls.size() > 0) {
+            nearestSearch = new WallAwareNearestSearch(nearestSearch,
+                    new SegmentGrid(walls));
+        }
+        Node[] nearest = nearestSearch.getNearest(centers);
+        for (int i = 0; i < nearest.length; i++) {
+            if (nearest[i] != null) {
+                tables.get(i).setClosestNodeId(nearest[i].getId());
+            }
+        }
+        Logger.getLogger("SeatingMap").log(Level.FINE,
+                () -> String.format(
+                        "Connected %d tables to paths on floor %d in %d ms",
+                        tables.size(), floor, TimeUnit.NANOSECONDS
+                                .toMillis(System.nanoTime() - start)));
     }
 
     /**
@@ -311,25 +487,20 @@ public class SeatingMap extends AbstractComoponents {
      * @return if finding the path was successful
      */
     public boolean getPath(int fromNode, int toNode) {
-        final Node n1 = paths.get(fromNode);
-        final Node n2 = paths.get(toNode);
-
-        if (n1 == null || n2 == null) {
+        if (!paths.contains(fromNode) || !paths.contains(toNode)) {
             return false;
         }
-        for (final Node node : paths.values()) {
-            node.minDistance = Double.POSITIVE_INFINITY;
-            node.previous = null;
-        }
 
-        Dijkstra.computePaths(n1);
-        final LinkedList<Node> pathNodes = Dijkstra.getShortestPathTo(n2);
+        final LinkedList<Node> pathNodes = findPath(fromNode, toNode);
+        if (pathNodes.isEmpty()) {
+            return false;
+        }
         Map<Integer, List<Node>> nodesByFloor = new HashMap<>();
         for (Node node : pathNodes) {
-            List<Node> nodes = nodesByFloor.get(nodeToFloor.get(node.getId()));
+            List<Node> nodes = nodesByFloor.get(node.level);
             if (nodes == null) {
                 nodes = new LinkedList<>();
-                nodesByFloor.put(nodeToFloor.get(node.getId()), nodes);
+                nodesByFloor.put(node.level, nodes);
             }
             nodes.add(node);
         }
@@ -342,9 +513,240 @@ public class SeatingMap extends AbstractComoponents {
         return true;
     }
 
+    /**
+     * Get the cache of computed routes, e.g. to read hit and miss counts or to
+     * change the cache size.
+     *
+     * @return route cache
+     */
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    /**
+     * Find the shortest path between nodes using the current route mode.
+     *
+     * @param fromNode
+     *            start node id
+     * @param toNode
+     *            end node id
+     * @return nodes from start to end or empty list if no path exists
+     */
+    protected LinkedList<Node> findPath(int fromNode, int toNode) {
+        long version = graphVersion;
+        PathGraph graph = getPathGraph();
+        LinkedList<Node> path = routeCache.get(fromNode, toNode, version,
+                graph.isSymmetric());
+        if (path == null) {
+            path = searchPath(graph, fromNode, toNode);
+            routeCache.put(fromNode, toNode, version, path);
+        }
+        return path;
+    }
+
+    private LinkedList<Node> searchPath(PathGraph graph, int fromNode,
+            int toNode) {
+        int source = graph.indexOf(fromNode);
+        int target = graph.indexOf(toNode);
+        switch (routeMode) {
+        case A_STAR:
+            return AStar.getShortestPath(graph, source, target);
+        case BIDIRECTIONAL:
+            return BidirectionalDijkstra.getShortestPath(graph, source,
+                    target);
+        case HIERARCHICAL:
+            return getFloorHierarchy().getShortestPath(source, target);
+        case CONTRACTION_HIERARCHY:
+            return getContractionHierarchy().getShortestPath(source, target);
+        default:
+            return GraphDijkstra.getShortestPath(graph, source, target);
+        }
+    }
+
+    /**
+     * Get the routing graph for current paths. The graph is rebuilt on first
+     * use after paths have been changed.
+     * <p>
+     * The returned graph is immutable and can be searched from any number of
+     * threads at the same time.
+     *
+     * @return frozen path graph
+     */
+    public PathGraph getPathGraph() {
+        PathGraph graph = pathGraph;
+        if (graph == null) {
+            synchronized (this) {
+                graph = pathGraph;
+                if (graph == null) {
+                    graph = PathGraph.build(paths.getNodes());
+                    pathGraph = graph;
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Get the portal routing index for current paths. Only floors changed
+     * since the last build get their portal distance tables recomputed.
+     *
+     * @return floor routing index
+     */
+    public FloorHierarchy getFloorHierarchy() {
+        FloorHierarchy hierarchy = floorHierarchy;
+        PathGraph graph = getPathGraph();
+        if (hierarchy == null || hierarchy.getGraph() != graph) {
+            synchronized (this) {
+                graph = getPathGraph();
+                hierarchy = floorHierarchy;
+                if (hierarchy == null || hierarchy.getGraph() != graph) {
+                    hierarchy = FloorHierarchy.update(graph, hierarchy,
+                            allFloorsChanged ? null : changedFloors);
+                    floorHierarchy = hierarchy;
+                    changedFloors.clear();
+                    allFloorsChanged = false;
+                }
+            }
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Get the contraction hierarchy for current paths. Preprocessing is done
+     * on first use after paths have changed and runs on the common fork-join
+     * pool.
+     *
+     * @return contraction hierarchy
+     */
+    public ContractionHierarchy getContractionHierarchy() {
+        ContractionHierarchy hierarchy = contractionHierarchy;
+        PathGraph graph = getPathGraph();
+        if (hierarchy == null || hierarchy.getGraph() != graph) {
+            synchronized (this) {
+                graph = getPathGraph();
+                hierarchy = contractionHierarchy;
+                if (hierarchy == null || hierarchy.getGraph() != graph) {
+                    hierarchy = ContractionHierarchy.build(graph);
+                    contractionHierarchy = hierarchy;
+                }
+            }
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Compute walking distances between all given tables. Tables need to have
+     * been connected to paths with {@link #connectTablesToPaths()}.
+     * <p>
+     * One search is run per distinct closest node on the common fork-join
+     * pool.
+     *
+     * @param tables
+     *            tables in matrix row and column order
+     * @return distance matrix, row and column i belong to tables.get(i)
+     */
+    public DistanceMatrix getWalkingDistances(List<Table> tables) {
+        return DistanceMatrix.compute(getPathGraph(), getNodeIds(tables));
+    }
+
+    /**
+     * Compute walking distances between all given tables into a memory mapped
+     * file.
+     *
+     * @param tables
+     *            tables in matrix row and column order
+     * @param file
+     *            file to store the distances in, overwritten if it exists
+     * @return distance matrix, row and column i belong to tables.get(i)
+     * @throws IOException
+     *             if the file could not be mapped
+     */
+    public DistanceMatrix getWalkingDistances(List<Table> tables, Path file)
+            throws IOException {
+        return DistanceMatrix.compute(getPathGraph(), getNodeIds(tables), file,
+                ForkJoinPool.commonPool());
+    }
+
+    private static int[] getNodeIds(List<Table> tables) {
+        return tables.stream().mapToInt(Table::getNodeId).toArray();
+    }
+
+    /**
+     * Get the candidate tables closest to a table by walking distance, e.g.
+     * the nearest free desks or printers. Tables need to have been connected
+     * to paths with {@link #connectTablesToPaths()}.
+     * <p>
+     * Runs a single search that stops when k candidate nodes are reached.
+     * Candidates sharing the closest node of from get distance 0. The from
+     * table itself is never returned.
+     *
+     * @param from
+     *            table to start from
+     * @param candidates
+     *            tables to choose from
+     * @param k
+     *            maximum amount of tables to return
+     * @return closest reachable candidates ordered by walking distance
+     */
+    public List<RouteMatch<Table>> getNearestTables(Table from,
+            Collection<Table> candidates, int k) {
+        Map<Integer, List<Table>> tablesByNode = new HashMap<>();
+        for (Table table : candidates) {
+            if (table != from) {
+                tablesByNode
+                        .computeIfAbsent(table.getNodeId(),
+                                node -> new ArrayList<>(1))
+                        .add(table);
+            }
+        }
+
+        List<RouteMatch<Table>> matches = new ArrayList<>(k);
+        for (RouteMatch<Node> match : getNearestNodes(from.getNodeId(),
+                tablesByNode.keySet(), k)) {
+            for (Table table : tablesByNode.get(match.getTarget().getId())) {
+                if (matches.size() == k) {
+                    return matches;
+                }
+                matches.add(new RouteMatch<>(table, match.getDistance(),
+                        match.getPath()));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Get the candidate nodes closest to a node by walking distance.
+     *
+     * @param fromNode
+     *            start node id
+     * @param nodeIds
+     *            candidate node ids
+     * @param k
+     *            maximum amount of nodes to return
+     * @return closest reachable candidates ordered by walking distance
+     */
+    public List<RouteMatch<Node>> getNearestNodes(int fromNode,
+            Collection<Integer> nodeIds, int k) {
+        PathGraph graph = getPathGraph();
+        int[] targets = new int[nodeIds.size()];
+        int i = 0;
+        for (int nodeId : nodeIds) {
+            targets[i++] = graph.indexOf(nodeId);
+        }
+        return NearestTargets.find(graph, graph.indexOf(fromNode), targets, k);
+    }
+
     protected Optional<Node> getNode(Point point, int floor) {
-        return Optional.ofNullable(
-                paths.get((int) (point.getX() + point.getY()) + floor));
+        return Optional.ofNullable(paths.get(point, floor));
+    }
+
+    /**
+     * Drop the frozen graph and invalidate cached routes after paths have
+     * changed.
+     */
+    private void pathsChanged() {
+        pathGraph = null;
+        graphVersion++;
     }
 
     private FloorMap getFloor(int floor) {
@@ -1,5 +1,6 @@
 package org.percepta.mgrankvi;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -49,6 +50,14 @@ public class Table extends AbstractComoponents {
                 (extents.getMaxY() - extents.getMinY()) / 2
                         + extents.getMinY());
         getState().lines = lines;
+        geometryChanged();
+    }
+
+    /**
+     * @return unmodifiable list of table lines
+     */
+    public List<Line> getLines() {
+        return Collections.unmodifiableList(getState(false).lines);
     }
 
     public void setId(String id) {
@@ -63,6 +72,20 @@ public class Table extends AbstractComoponents {
         return getState(false).nameVisibility;
     }
 
+    /**
+     * Mark table as occupied, for example from live position data.
+     *
+     * @param occupied
+     *            true if someone is at the table
+     */
+    public void setOccupied(boolean occupied) {
+        getState().occupied = occupied;
+    }
+
+    public boolean isOccupied() {
+        return getState(false).occupied;
+    }
+
     public void setClosestNodeId(int nodeId) {
         closestNodeId = nodeId;
     }
@@ -28,14 +28,20 @@ public class Line implements Serializable {
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof Line) {
-            return toString().equals(obj.toString()) && reverseString().equals(((Line) obj).reverseString());
+            Line other = (Line) obj;
+            return equals(start, other.start) && equals(end, other.end);
         }
         return false;
     }
 
+    private static boolean equals(Point a, Point b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     @Override
     public int hashCode() {
-        return super.hashCode();
+        return 31 * (start == null ? 0 : start.hashCode())
+                + (end == null ? 0 : end.hashCode());
     }
 
     /**
@@ -0,0 +1,136 @@
+package org.percepta.mgrankvi.client.geometry;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packed growable list of line segments, four doubles x1, y1, x2, y2 per line
+ * in one array.
+ * <p>
+ * Meant for bulk handling of many lines, for example image import output or
+ * index building, where a {@link Line} with two {@link Point} objects per
+ * segment costs three objects and scattered memory.
+ */
+public class LineBuffer implements Serializable {
+
+    private double[] coordinates;
+    private int size;
+
+    public LineBuffer() {
+        this(16);
+    }
+
+    /**
+     * @param capacity
+     *            amount of lines to reserve space for
+     */
+    public LineBuffer(int capacity) {
+        coordinates = new double[Math.max(capacity, 1) * 4];
+    }
+
+    /**
+     * Create buffer holding the given lines.
+     *
+     * @param lines
+     *            lines to copy
+     * @return new buffer
+     */
+    public static LineBuffer of(List<Line> lines) {
+        LineBuffer buffer = new LineBuffer(lines.size());
+        for (Line line : lines) {
+            buffer.add(line);
+        }
+        return buffer;
+    }
+
+    public void add(Line line) {
+        add(line.start.getX(), line.start.getY(), line.end.getX(),
+                line.end.getY());
+    }
+
+    public void add(double x1, double y1, double x2, double y2) {
+        if (size * 4 == coordinates.length) {
+            double[] grown = new double[coordinates.length * 2];
+            System.arraycopy(coordinates, 0, grown, 0, coordinates.length);
+            coordinates = grown;
+        }
+        int offset = size * 4;
+        coordinates[offset] = x1;
+        coordinates[offset + 1] = y1;
+        coordinates[offset + 2] = x2;
+        coordinates[offset + 3] = y2;
+        size++;
+    }
+
+    /**
+     * @return amount of lines
+     */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public double getX1(int index) {
+        return coordinates[index * 4];
+    }
+
+    public double getY1(int index) {
+        return coordinates[index * 4 + 1];
+    }
+
+    public double getX2(int index) {
+        return coordinates[index * 4 + 2];
+    }
+
+    public double getY2(int index) {
+        return coordinates[index * 4 + 3];
+    }
+
+    /**
+     * Check if a line with the same end points in the same order is in the
+     * buffer, without creating objects.
+     */
+    public boolean contains(double x1, double y1, double x2, double y2) {
+        for (int offset = 0; offset < size * 4; offset += 4) {
+            if (coordinates[offset] == x1 && coordinates[offset + 1] == y1
+                    && coordinates[offset + 2] == x2
+                    && coordinates[offset + 3] == y2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move all lines by offset.
+     */
+    public void translate(double dx, double dy) {
+        for (int offset = 0; offset < size * 4; offset += 2) {
+            coordinates[offset] += dx;
+            coordinates[offset + 1] += dy;
+        }
+    }
+
+    /**
+     * Get line at index as a new object.
+     */
+    public Line getLine(int index) {
+        return new Line(new Point(getX1(index), getY1(index)),
+                new Point(getX2(index), getY2(index)));
+    }
+
+    /**
+     * @return lines as new objects
+     */
+    public List<Line> toLines() {
+        List<Line> lines = new ArrayList<Line>(size);
+        for (int i = 0; i < size; i++) {
+            lines.add(getLine(i));
+        }
+        return lines;
+    }
+}
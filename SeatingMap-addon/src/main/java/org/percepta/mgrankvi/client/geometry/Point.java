@@ -59,7 +59,8 @@ public class Point implements Comparable<Point>, Serializable {
 
     @Override
     public int hashCode() {
-        return toString().hashCode();
+        // Adding zero turns -0.0 into 0.0, which equals() considers equal
+        return 31 * Double.hashCode(x + 0.0) + Double.hashCode(y + 0.0);
     }
 
     @Override
@@ -41,6 +41,11 @@ public class TableConnector extends AbstractHasComponentsConnector {
         getWidget().setNameVisible(getState().nameVisibility);
     }
 
+    @OnStateChange("occupied")
+    void switchOccupied() {
+        getWidget().setOccupied(getState().occupied);
+    }
+
     @Override
     public void onConnectorHierarchyChange(ConnectorHierarchyChangeEvent connectorHierarchyChangeEvent) {
         final List<ComponentConnector> children = getChildComponents();
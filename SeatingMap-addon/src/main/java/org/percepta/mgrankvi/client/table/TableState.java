@@ -18,4 +18,6 @@ public class TableState extends AbstractComponentContainerState {
     public String imageUrl = null;
 
     public boolean nameVisibility = false;
+
+    public boolean occupied = false;
 }
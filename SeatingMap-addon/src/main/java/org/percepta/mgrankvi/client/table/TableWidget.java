@@ -6,9 +6,15 @@ import com.google.gwt.dom.client.ImageElement;
 import com.google.gwt.user.client.ui.Image;
 import org.percepta.mgrankvi.client.abstracts.Targetable;
 import org.percepta.mgrankvi.client.geometry.Calculations;
+import org.percepta.mgrankvi.client.geometry.Line;
 import org.percepta.mgrankvi.client.geometry.Point;
 import org.percepta.mgrankvi.client.helpers.Clicked;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
 /**
  * Created by Mikael on 18/12/16.
  */
@@ -21,6 +27,7 @@ public class TableWidget extends Targetable {
 
     protected boolean paintName = false;
     protected boolean nameVisibility = false;
+    protected boolean occupied = false;
 
     public TableWidget() {  // Dummy
         setElement(Document.get().createDivElement());
@@ -35,11 +42,58 @@ public class TableWidget extends Targetable {
     public void paint(Context2d context) {
         super.paint(context);
 
+        if (occupied) {
+            paintOccupied(context);
+        }
         if (paintName || nameVisibility) {
             paintName(context);
         }
     }
 
+    public void paintOccupied(final Context2d context) {
+        final List<Line> lines = getLines();
+        if (lines.isEmpty()) {
+            return;
+        }
+        // Outline lines can be in any order and direction, so the corners of
+        // the convex outline are ordered by angle around their center
+        final List<Point> corners = new ArrayList<Point>();
+        for (Line l : lines) {
+            if (!corners.contains(l.start)) {
+                corners.add(l.start);
+            }
+            if (!corners.contains(l.end)) {
+                corners.add(l.end);
+            }
+        }
+        double sumX = 0;
+        double sumY = 0;
+        for (Point corner : corners) {
+            sumX += corner.getX();
+            sumY += corner.getY();
+        }
+        final double centerX = sumX / corners.size();
+        final double centerY = sumY / corners.size();
+        Collections.sort(corners, new Comparator<Point>() {
+            @Override
+            public int compare(Point a, Point b) {
+                return Double.compare(Math.atan2(a.getY() - centerY, a.getX() - centerX),
+                        Math.atan2(b.getY() - centerY, b.getX() - centerX));
+            }
+        });
+
+        context.save();
+        context.setFillStyle("rgba(255, 0, 0, 0.3)");
+        context.beginPath();
+        context.moveTo(position.getX() + corners.get(0).getX(), position.getY() + corners.get(0).getY());
+        for (int i = 1; i < corners.size(); i++) {
+            context.lineTo(position.getX() + corners.get(i).getX(), position.getY() + corners.get(i).getY());
+        }
+        context.closePath();
+        context.fill();
+        context.restore();
+    }
+
     public void paintName(final Context2d context) {
         context.save();
         context.setFont("bold 10px Courier New");
@@ -91,6 +145,10 @@ public class TableWidget extends Targetable {
         this.nameVisibility = nameVisibility;
     }
 
+    public void setOccupied(boolean occupied) {
+        this.occupied = occupied;
+    }
+
     @Override
     public Clicked click(double downX, double downY) {
 //        nameVisibility = !nameVisibility;
@@ -0,0 +1,122 @@
+package org.percepta.mgrankvi.occupancy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer of position fixes for many producers and a
+ * single consumer.
+ * <p>
+ * Fix fields are stored in primitive arrays so that offering a fix does not
+ * allocate. Each slot has a sequence number: a producer claims a position by
+ * compare-and-set on the tail, writes the fields and publishes the slot by
+ * setting its sequence, and the consumer frees the slot again by advancing
+ * its sequence by the capacity.
+ */
+class FixQueue {
+
+    /**
+     * Receiver of drained fixes.
+     */
+    interface FixHandler {
+        void accept(int floor, double x, double y, long deviceId);
+    }
+
+    private final int mask;
+    // Slot is free for position p when sequence is p, filled when p + 1
+    private final AtomicLongArray sequence;
+    private final int[] floors;
+    private final double[] xs;
+    private final double[] ys;
+    private final long[] devices;
+
+    private final AtomicLong tail = new AtomicLong();
+    // Only touched by the consumer
+    private long head;
+
+    /**
+     * @param capacity
+     *            minimum amount of fixes the queue can hold, rounded up to a
+     *            power of two
+     */
+    FixQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid queue capacity %d", capacity));
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        sequence = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequence.set(i, i);
+        }
+        floors = new int[size];
+        xs = new double[size];
+        ys = new double[size];
+        devices = new long[size];
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Add fix to the queue. Safe to call from any thread.
+     *
+     * @return false if the queue is full and the fix was dropped
+     */
+    boolean offer(int floor, double x, double y, long deviceId) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) position & mask;
+            long difference = sequence.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // Slot still holds a fix from the previous lap
+                return false;
+            } else {
+                // Another producer claimed the position
+                position = tail.get();
+            }
+        }
+        floors[index] = floor;
+        xs[index] = x;
+        ys[index] = y;
+        devices[index] = deviceId;
+        sequence.lazySet(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Pass queued fixes to handler in offer order. Only one thread may drain.
+     *
+     * @param handler
+     *            receiver of fixes
+     * @param max
+     *            maximum amount of fixes to drain
+     * @return amount of fixes drained
+     */
+    int drain(FixHandler handler, int max) {
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) head & mask;
+            if (sequence.get(index) != head + 1) {
+                break;
+            }
+            handler.accept(floors[index], xs[index], ys[index],
+                    devices[index]);
+            sequence.lazySet(index, head + mask + 1);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,316 @@
+package org.percepta.mgrankvi.occupancy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.percepta.mgrankvi.FloorMap;
+import org.percepta.mgrankvi.Table;
+import org.percepta.mgrankvi.client.geometry.Line;
+import org.percepta.mgrankvi.util.PolygonGrid;
+
+import com.vaadin.ui.UI;
+
+/**
+ * Turns a stream of indoor position fixes into table occupancy.
+ * <p>
+ * Fixes are offered from any thread into a bounded lock-free queue. A single
+ * consumer, normally a scheduled executor calling {@link #run()}, drains the
+ * queue and resolves each fix to the table whose outline contains it. Per
+ * table the time of the last fix and the device that sent it are kept in
+ * primitive arrays. A table stays occupied until no fix has hit it for the
+ * occupied time, or until its last device is seen at another table. A
+ * device is only remembered while it is the last device of an occupied
+ * table, so devices that change their id don't pile up.
+ * <p>
+ * Changes are coalesced and written to the tables at most once per flush
+ * interval, inside one {@link UI#access(Runnable)} when the tables are
+ * attached, so each flush is at most one push to the client.
+ * <p>
+ * Tables are read when the tracker is created. Create a new tracker after
+ * tables have been added, removed or moved.
+ */
+public class OccupancyTracker implements Runnable {
+
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    // Table has never been hit
+    private static final long NEVER = Long.MIN_VALUE;
+    // Device has no table
+    private static final int NO_TABLE = -1;
+
+    private final FixQueue queue;
+    private final long occupiedMillis;
+    private final long flushMillis;
+
+    // Table outlines per floor, floor levels[i] is indexed by grids[i]
+    private final int[] levels;
+    private final PolygonGrid[] grids;
+    // Index in tables of polygon p of grid i is tableIndex[i][p]
+    private final int[][] tableIndex;
+
+    private final Table[] tables;
+    private final long[] lastSeen;
+    private final long[] lastDevice;
+    // Occupancy last written to the tables
+    private final boolean[] occupied;
+
+    // Table of each device, open addressing with linear probing
+    private long[] deviceKeys = new long[64];
+    private int[] deviceTables = new int[64];
+    private boolean[] deviceUsed = new boolean[64];
+    private int deviceCount;
+
+    private long lastFlush = NEVER;
+    // Time of the fixes being drained
+    private long now;
+    private final FixQueue.FixHandler handler = this::accept;
+
+    /**
+     * Create tracker with a queue of {@link #DEFAULT_CAPACITY} fixes.
+     *
+     * @param floors
+     *            floors whose tables to track
+     * @param occupiedMillis
+     *            time a table stays occupied after its last fix
+     * @param flushMillis
+     *            minimum time between writing changes to the tables
+     */
+    public OccupancyTracker(Collection<FloorMap> floors, long occupiedMillis,
+            long flushMillis) {
+        this(floors, occupiedMillis, flushMillis, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param floors
+     *            floors whose tables to track
+     * @param occupiedMillis
+     *            time a table stays occupied after its last fix
+     * @param flushMillis
+     *            minimum time between writing changes to the tables
+     * @param capacity
+     *            amount of fixes the queue holds before offers are dropped
+     */
+    public OccupancyTracker(Collection<FloorMap> floors, long occupiedMillis,
+            long flushMillis, int capacity) {
+        queue = new FixQueue(capacity);
+        this.occupiedMillis = occupiedMillis;
+        this.flushMillis = flushMillis;
+
+        levels = new int[floors.size()];
+        grids = new PolygonGrid[floors.size()];
+        tableIndex = new int[floors.size()][];
+        List<Table> tableList = new ArrayList<>();
+        int floorIndex = 0;
+        for (FloorMap floor : floors) {
+            List<Table> floorTables = floor.getTables();
+            List<List<Line>> outlines = new ArrayList<>(floorTables.size());
+            tableIndex[floorIndex] = new int[floorTables.size()];
+            for (int i = 0; i < floorTables.size(); i++) {
+                outlines.add(floorTables.get(i).getLines());
+                tableIndex[floorIndex][i] = tableList.size();
+                tableList.add(floorTables.get(i));
+            }
+            levels[floorIndex] = floor.getLevel();
+            grids[floorIndex] = new PolygonGrid(outlines);
+            floorIndex++;
+        }
+
+        tables = tableList.toArray(new Table[tableList.size()]);
+        lastSeen = new long[tables.length];
+        Arrays.fill(lastSeen, NEVER);
+        lastDevice = new long[tables.length];
+        occupied = new boolean[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            occupied[i] = tables[i].isOccupied();
+        }
+    }
+
+    /**
+     * Queue a position fix. Safe to call from any thread and does not block
+     * or allocate.
+     *
+     * @param floor
+     *            floor level of the fix
+     * @param x
+     *            x coordinate on the floor
+     * @param y
+     *            y coordinate on the floor
+     * @param deviceId
+     *            id of the device that reported the position
+     * @return false if the queue was full and the fix was dropped
+     */
+    public boolean offer(int floor, double x, double y, long deviceId) {
+        return queue.offer(floor, x, y, deviceId);
+    }
+
+    /**
+     * Process queued fixes against the current time.
+     */
+    @Override
+    public void run() {
+        process(System.currentTimeMillis());
+    }
+
+    /**
+     * Process queued fixes and write occupancy changes to the tables if the
+     * flush interval has passed. Must not be called from several threads at
+     * the same time.
+     *
+     * @param now
+     *            current time in milliseconds
+     * @return amount of fixes processed
+     */
+    public int process(long now) {
+        this.now = now;
+        // Stop after one lap so that fast producers can't keep us here
+        int processed = queue.drain(handler, queue.capacity());
+        if (lastFlush == NEVER || now - lastFlush >= flushMillis) {
+            flush(now);
+            lastFlush = now;
+        }
+        return processed;
+    }
+
+    private void accept(int floor, double x, double y, long deviceId) {
+        int table = locate(floor, x, y);
+        if (table == NO_TABLE) {
+            return;
+        }
+        int previous = putDevice(deviceId, table);
+        if (previous != NO_TABLE && previous != table
+                && lastDevice[previous] == deviceId) {
+            // Device moved on, release its old table without waiting
+            lastSeen[previous] = NEVER;
+        }
+        lastSeen[table] = now;
+        lastDevice[table] = deviceId;
+    }
+
+    private int locate(int floor, double x, double y) {
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] == floor) {
+                int polygon = grids[i].locate(x, y);
+                return polygon == -1 ? NO_TABLE : tableIndex[i][polygon];
+            }
+        }
+        return NO_TABLE;
+    }
+
+    /**
+     * Write tables whose occupancy differs from the last flush.
+     */
+    private void flush(long now) {
+        if (deviceCount > tables.length) {
+            forgetDevices(now);
+        }
+        List<Table> changed = new ArrayList<>();
+        List<Boolean> values = new ArrayList<>();
+        for (int i = 0; i < tables.length; i++) {
+            boolean current = lastSeen[i] != NEVER
+                    && now - lastSeen[i] < occupiedMillis;
+            if (current != occupied[i]) {
+                occupied[i] = current;
+                changed.add(tables[i]);
+                values.add(current);
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        Runnable apply = () -> {
+            for (int i = 0; i < changed.size(); i++) {
+                changed.get(i).setOccupied(values.get(i));
+            }
+        };
+        UI ui = changed.get(0).getUI();
+        if (ui != null) {
+            ui.access(apply);
+        } else {
+            apply.run();
+        }
+    }
+
+    /**
+     * Store table for device.
+     *
+     * @return previous table of device or {@link #NO_TABLE}
+     */
+    private int putDevice(long deviceId, int table) {
+        if (deviceCount * 2 >= deviceKeys.length) {
+            growDevices();
+        }
+        int slot = slot(deviceId, deviceKeys.length);
+        while (deviceUsed[slot]) {
+            if (deviceKeys[slot] == deviceId) {
+                int previous = deviceTables[slot];
+                deviceTables[slot] = table;
+                return previous;
+            }
+            slot = (slot + 1) & (deviceKeys.length - 1);
+        }
+        deviceUsed[slot] = true;
+        deviceKeys[slot] = deviceId;
+        deviceTables[slot] = table;
+        deviceCount++;
+        return NO_TABLE;
+    }
+
+    private void growDevices() {
+        rehashDevices(deviceKeys.length * 2);
+    }
+
+    /**
+     * Drop devices that no longer hold an occupied table. At most one device
+     * per table remains, so the device table stays proportional to the
+     * amount of tables however many device ids are seen.
+     */
+    private void forgetDevices(long now) {
+        int live = 0;
+        for (int i = 0; i < deviceKeys.length; i++) {
+            if (deviceUsed[i] && !holdsTable(deviceKeys[i], deviceTables[i],
+                    now)) {
+                deviceUsed[i] = false;
+            } else if (deviceUsed[i]) {
+                live++;
+            }
+        }
+        int length = 64;
+        while (live * 4 > length) {
+            length *= 2;
+        }
+        rehashDevices(length);
+    }
+
+    private boolean holdsTable(long deviceId, int table, long now) {
+        return lastDevice[table] == deviceId && lastSeen[table] != NEVER
+                && now - lastSeen[table] < occupiedMillis;
+    }
+
+    private void rehashDevices(int length) {
+        long[] oldKeys = deviceKeys;
+        int[] oldTables = deviceTables;
+        boolean[] oldUsed = deviceUsed;
+        deviceKeys = new long[length];
+        deviceTables = new int[length];
+        deviceUsed = new boolean[length];
+        deviceCount = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slot(oldKeys[i], deviceKeys.length);
+                while (deviceUsed[slot]) {
+                    slot = (slot + 1) & (deviceKeys.length - 1);
+                }
+                deviceUsed[slot] = true;
+                deviceKeys[slot] = oldKeys[i];
+                deviceTables[slot] = oldTables[i];
+                deviceCount++;
+            }
+        }
+    }
+
+    private static int slot(long key, int length) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & (length - 1);
+    }
+}
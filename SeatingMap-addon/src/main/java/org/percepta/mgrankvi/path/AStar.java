@@ -0,0 +1,78 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.LinkedList;
+
+/**
+ * A* shortest path search over a frozen {@link PathGraph}.
+ * <p>
+ * Uses {@link PathGraph#estimate(int, int)} as heuristic, which is consistent,
+ * so every node is settled at most once and the search can stop as soon as
+ * the target is settled.
+ */
+public class AStar {
+
+    /**
+     * Get the shortest path between two nodes.
+     *
+     * @param graph
+     *            graph to search
+     * @param source
+     *            index of start node
+     * @param target
+     *            index of end node
+     * @return nodes from source to target or an empty list if target can not
+     *         be reached
+     */
+    public static LinkedList<Node> getShortestPath(final PathGraph graph,
+            final int source, final int target) {
+        final SearchState state = graph.acquireState();
+        try {
+            if (!computePath(graph, state, source, target)) {
+                return new LinkedList<>();
+            }
+            return graph.collectPath(state, target);
+        } finally {
+            graph.releaseState(state);
+        }
+    }
+
+    /**
+     * Run search from source towards target into given state.
+     *
+     * @param graph
+     *            graph to search
+     * @param state
+     *            cleared state to write distances and predecessors to
+     * @param source
+     *            index of start node
+     * @param target
+     *            index of end node
+     * @return true if target was reached
+     */
+    public static boolean computePath(final PathGraph graph,
+            final SearchState state, final int source, final int target) {
+        final IndexedHeap queue = state.queue;
+        state.update(source, 0., -1);
+        queue.insertOrDecrease(source, graph.estimate(source, target));
+
+        while (!queue.isEmpty()) {
+            final int u = queue.poll();
+            if (u == target) {
+                return true;
+            }
+            final double distanceToU = state.getDistance(u);
+
+            for (int e = graph.firstLink(u); e < graph.lastLink(u); e++) {
+                final int v = graph.linkTarget(e);
+                final double distanceThroughU = distanceToU
+                        + graph.linkWeight(e);
+                if (distanceThroughU < state.getDistance(v)) {
+                    state.update(v, distanceThroughU, u);
+                    queue.insertOrDecrease(v,
+                            distanceThroughU + graph.estimate(v, target));
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,111 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.LinkedList;
+
+/**
+ * Bidirectional Dijkstra search over a frozen {@link PathGraph}.
+ * <p>
+ * Searches forward from the source and backward over incoming links from the
+ * target, always expanding the side with the smaller queue key. The search
+ * stops when the sum of both queue keys reaches the best path found through a
+ * node reached by both sides.
+ */
+public class BidirectionalDijkstra {
+
+    /**
+     * Get the shortest path between two nodes.
+     *
+     * @param graph
+     *            graph to search
+     * @param source
+     *            index of start node
+     * @param target
+     *            index of end node
+     * @return nodes from source to target or an empty list if target can not
+     *         be reached
+     */
+    public static LinkedList<Node> getShortestPath(final PathGraph graph,
+            final int source, final int target) {
+        if (source == target) {
+            LinkedList<Node> path = new LinkedList<>();
+            path.add(graph.getNode(source));
+            return path;
+        }
+
+        final SearchState forward = graph.acquireState();
+        final SearchState backward = graph.acquireState();
+        try {
+            final IndexedHeap forwardQueue = forward.queue;
+            final IndexedHeap backwardQueue = backward.queue;
+            forward.update(source, 0., -1);
+            forwardQueue.insertOrDecrease(source, 0.);
+            backward.update(target, 0., -1);
+            backwardQueue.insertOrDecrease(target, 0.);
+
+            double best = Double.POSITIVE_INFINITY;
+            int meeting = -1;
+
+            while (!forwardQueue.isEmpty() && !backwardQueue.isEmpty()) {
+                if (forwardQueue.peekKey() + backwardQueue.peekKey() >= best) {
+                    break;
+                }
+
+                if (forwardQueue.peekKey() <= backwardQueue.peekKey()) {
+                    final int u = forwardQueue.poll();
+                    final double distanceToU = forward.getDistance(u);
+                    for (int e = graph.firstLink(u); e < graph
+                            .lastLink(u); e++) {
+                        final int v = graph.linkTarget(e);
+                        final double distanceThroughU = distanceToU
+                                + graph.linkWeight(e);
+                        if (distanceThroughU < forward.getDistance(v)) {
+                            forward.update(v, distanceThroughU, u);
+                            forwardQueue.insertOrDecrease(v, distanceThroughU);
+                        }
+                        final double total = distanceThroughU
+                                + backward.getDistance(v);
+                        if (total < best) {
+                            best = total;
+                            meeting = v;
+                        }
+                    }
+                } else {
+                    final int u = backwardQueue.poll();
+                    final double distanceFromU = backward.getDistance(u);
+                    for (int e = graph.firstReverseLink(u); e < graph
+                            .lastReverseLink(u); e++) {
+                        final int v = graph.reverseLinkSource(e);
+                        final double distanceThroughU = distanceFromU
+                                + graph.reverseLinkWeight(e);
+                        if (distanceThroughU < backward.getDistance(v)) {
+                            backward.update(v, distanceThroughU, u);
+                            backwardQueue.insertOrDecrease(v,
+                                    distanceThroughU);
+                        }
+                        final double total = distanceThroughU
+                                + forward.getDistance(v);
+                        if (total < best) {
+                            best = total;
+                            meeting = v;
+                        }
+                    }
+                }
+            }
+
+            LinkedList<Node> path = new LinkedList<>();
+            if (meeting == -1) {
+                return path;
+            }
+            path = graph.collectPath(forward, meeting);
+            // Backward predecessors point towards the target
+            for (int node = backward.getPrevious(meeting); node != -1; node = backward
+                    .getPrevious(node)) {
+                path.add(graph.getNode(node));
+            }
+            return path;
+        } finally {
+            graph.releaseState(forward);
+            graph.releaseState(backward);
+        }
+    }
+}
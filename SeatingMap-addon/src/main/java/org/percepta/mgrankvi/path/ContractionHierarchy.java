@@ -0,0 +1,589 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Contraction hierarchy built on top of a frozen {@link PathGraph}.
+ * <p>
+ * Preprocessing contracts the nodes from least to most important and adds a
+ * shortcut link whenever removing a node would lengthen a shortest path
+ * between its neighbours. A query is then a bidirectional search that only
+ * follows links upwards in the contraction order, after which shortcuts are
+ * unpacked back into the original nodes.
+ * <p>
+ * Contraction runs in rounds over independent sets of nodes, so witness
+ * searches and priority updates are done in parallel on the common fork-join
+ * pool. Queries are thread-safe.
+ */
+public class ContractionHierarchy {
+
+    // Give up on a witness search after this many settled nodes. Priority
+    // estimates use a smaller limit than the actual contraction.
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    private static final int ESTIMATE_SETTLE_LIMIT = 50;
+
+    private final PathGraph graph;
+    private final int[] rank;
+    private final int shortcutCount;
+
+    // Links to higher ranked nodes in CSR form
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    private final int[] upMiddles;
+
+    // Links from higher ranked nodes in CSR form
+    private final int[] downOffsets;
+    private final int[] downSources;
+    private final double[] downWeights;
+    private final int[] downMiddles;
+
+    private final Queue<SearchState> statePool = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Growable link list used while contracting.
+     */
+    private static class Links {
+        int size;
+        int[] nodes = new int[4];
+        double[] weights = new double[4];
+        int[] middles = new int[4];
+
+        /**
+         * Add link or lower the weight of an existing link to node.
+         */
+        void put(int node, double weight, int middle) {
+            for (int i = 0; i < size; i++) {
+                if (nodes[i] == node) {
+                    if (weight < weights[i]) {
+                        weights[i] = weight;
+                        middles[i] = middle;
+                    }
+                    return;
+                }
+            }
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+                middles = Arrays.copyOf(middles, size * 2);
+            }
+            nodes[size] = node;
+            weights[size] = weight;
+            middles[size++] = middle;
+        }
+    }
+
+    /**
+     * Dijkstra scratch space for witness searches, one per concurrent
+     * search.
+     */
+    private static class WitnessSearch {
+        final double[] distance;
+        final int[] stamp;
+        final IndexedHeap queue;
+        int generation;
+
+        WitnessSearch(int size) {
+            distance = new double[size];
+            stamp = new int[size];
+            queue = new IndexedHeap(size);
+        }
+
+        double get(int node) {
+            return stamp[node] == generation ? distance[node]
+                    : Double.POSITIVE_INFINITY;
+        }
+
+        void set(int node, double value) {
+            stamp[node] = generation;
+            distance[node] = value;
+        }
+
+        /**
+         * Search from source over uncontracted nodes, skipping the node being
+         * contracted, until maxDistance or the settle limit is reached.
+         */
+        void run(Links[] out, boolean[] contracted, int source, int skip,
+                double maxDistance, int settleLimit) {
+            queue.clear();
+            if (++generation == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                generation = 1;
+            }
+            set(source, 0);
+            queue.insertOrDecrease(source, 0);
+            int settled = 0;
+            while (!queue.isEmpty() && settled++ < settleLimit) {
+                if (queue.peekKey() > maxDistance) {
+                    break;
+                }
+                int u = queue.poll();
+                double distanceToU = get(u);
+                Links links = out[u];
+                for (int i = 0; i < links.size; i++) {
+                    int v = links.nodes[i];
+                    if (v == skip || contracted[v]) {
+                        continue;
+                    }
+                    double distanceThroughU = distanceToU + links.weights[i];
+                    if (distanceThroughU < get(v)) {
+                        set(v, distanceThroughU);
+                        queue.insertOrDecrease(v, distanceThroughU);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Working state of the preprocessing.
+     */
+    private static class Contraction {
+        final Links[] out;
+        final Links[] in;
+        final boolean[] contracted;
+        final int[] contractedNeighbours;
+        // Idle witness searches, dropped with the contraction after build
+        final Queue<WitnessSearch> searches = new ConcurrentLinkedQueue<>();
+        final int size;
+
+        Contraction(PathGraph graph) {
+            size = graph.size();
+            out = new Links[size];
+            in = new Links[size];
+            for (int i = 0; i < size; i++) {
+                out[i] = new Links();
+                in[i] = new Links();
+            }
+            for (int u = 0; u < size; u++) {
+                for (int e = graph.firstLink(u); e < graph.lastLink(u); e++) {
+                    int v = graph.linkTarget(e);
+                    if (u != v) {
+                        out[u].put(v, graph.linkWeight(e), -1);
+                        in[v].put(u, graph.linkWeight(e), -1);
+                    }
+                }
+            }
+            contracted = new boolean[size];
+            contractedNeighbours = new int[size];
+        }
+
+        /**
+         * Find the shortcuts needed to contract node.
+         *
+         * @return shortcuts as from, to, middle triplets with weights in the
+         *         matching position of weights, or the count only when
+         *         weights is null
+         */
+        int shortcuts(int node, int[] triplets, double[] weights) {
+            Links incoming = in[node];
+            Links outgoing = out[node];
+            WitnessSearch search = searches.poll();
+            if (search == null) {
+                search = new WitnessSearch(size);
+            }
+            try {
+                return shortcuts(node, triplets, weights, incoming, outgoing,
+                        search);
+            } finally {
+                searches.offer(search);
+            }
+        }
+
+        private int shortcuts(int node, int[] triplets, double[] weights,
+                Links incoming, Links outgoing, WitnessSearch search) {
+            int count = 0;
+            for (int i = 0; i < incoming.size; i++) {
+                int from = incoming.nodes[i];
+                if (contracted[from]) {
+                    continue;
+                }
+                double maxDistance = 0;
+                for (int j = 0; j < outgoing.size; j++) {
+                    if (!contracted[outgoing.nodes[j]]) {
+                        maxDistance = Math.max(maxDistance,
+                                incoming.weights[i] + outgoing.weights[j]);
+                    }
+                }
+                search.run(out, contracted, from, node, maxDistance,
+                        weights == null ? ESTIMATE_SETTLE_LIMIT
+                                : WITNESS_SETTLE_LIMIT);
+                for (int j = 0; j < outgoing.size; j++) {
+                    int to = outgoing.nodes[j];
+                    if (to == from || contracted[to]) {
+                        continue;
+                    }
+                    double via = incoming.weights[i] + outgoing.weights[j];
+                    if (search.get(to) > via) {
+                        if (weights != null) {
+                            triplets[count * 3] = from;
+                            triplets[count * 3 + 1] = to;
+                            triplets[count * 3 + 2] = node;
+                            weights[count] = via;
+                        }
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        int priority(int node) {
+            int degree = 0;
+            for (int i = 0; i < out[node].size; i++) {
+                if (!contracted[out[node].nodes[i]]) {
+                    degree++;
+                }
+            }
+            for (int i = 0; i < in[node].size; i++) {
+                if (!contracted[in[node].nodes[i]]) {
+                    degree++;
+                }
+            }
+            return shortcuts(node, null, null) - degree
+                    + contractedNeighbours[node];
+        }
+
+        int maxShortcuts(int node) {
+            return in[node].size * out[node].size;
+        }
+    }
+
+    private ContractionHierarchy(PathGraph graph, int[] rank,
+            Contraction contraction, int shortcutCount) {
+        this.graph = graph;
+        this.rank = rank;
+        this.shortcutCount = shortcutCount;
+
+        int size = graph.size();
+        upOffsets = new int[size + 1];
+        downOffsets = new int[size + 1];
+        for (int v = 0; v < size; v++) {
+            upOffsets[v + 1] = upOffsets[v]
+                    + countHigher(contraction.out[v], v);
+            downOffsets[v + 1] = downOffsets[v]
+                    + countHigher(contraction.in[v], v);
+        }
+        upTargets = new int[upOffsets[size]];
+        upWeights = new double[upOffsets[size]];
+        upMiddles = new int[upOffsets[size]];
+        downSources = new int[downOffsets[size]];
+        downWeights = new double[downOffsets[size]];
+        downMiddles = new int[downOffsets[size]];
+        for (int v = 0; v < size; v++) {
+            copyHigher(contraction.out[v], v, upOffsets[v], upTargets,
+                    upWeights, upMiddles);
+            copyHigher(contraction.in[v], v, downOffsets[v], downSources,
+                    downWeights, downMiddles);
+        }
+    }
+
+    private int countHigher(Links links, int node) {
+        int count = 0;
+        for (int i = 0; i < links.size; i++) {
+            if (rank[links.nodes[i]] > rank[node]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void copyHigher(Links links, int node, int offset, int[] nodes,
+            double[] weights, int[] middles) {
+        for (int i = 0; i < links.size; i++) {
+            if (rank[links.nodes[i]] > rank[node]) {
+                nodes[offset] = links.nodes[i];
+                weights[offset] = links.weights[i];
+                middles[offset++] = links.middles[i];
+            }
+        }
+    }
+
+    /**
+     * Preprocess graph into a contraction hierarchy. Uses the common fork-join
+     * pool; to use another pool run this as a task in that pool.
+     *
+     * @param graph
+     *            graph to preprocess
+     * @return contraction hierarchy for graph
+     */
+    public static ContractionHierarchy build(PathGraph graph) {
+        final int size = graph.size();
+        final Contraction contraction = new Contraction(graph);
+        final int[] priority = new int[size];
+        final int[] rank = new int[size];
+        IntStream.range(0, size).parallel()
+                .forEach(node -> priority[node] = contraction.priority(node));
+
+        int[] remaining = IntStream.range(0, size).toArray();
+        int remainingCount = size;
+        boolean[] touched = new boolean[size];
+        int order = 0;
+        int shortcutCount = 0;
+        while (remainingCount > 0) {
+            // Nodes less important than all of their uncontracted neighbours
+            final int[] candidates = Arrays.copyOf(remaining, remainingCount);
+            int[] independent = Arrays.stream(candidates).parallel()
+                    .filter(node -> isLocalMinimum(contraction, priority,
+                            node))
+                    .toArray();
+
+            // Mark the whole round contracted first so that nodes of the same
+            // round are never used as witnesses for each other.
+            for (int node : independent) {
+                contraction.contracted[node] = true;
+                rank[node] = order++;
+            }
+
+            int[][] triplets = new int[independent.length][];
+            double[][] weights = new double[independent.length][];
+            IntStream.range(0, independent.length).parallel().forEach(i -> {
+                int node = independent[i];
+                int max = contraction.maxShortcuts(node);
+                triplets[i] = new int[max * 3];
+                weights[i] = new double[max];
+                int count = contraction.shortcuts(node, triplets[i],
+                        weights[i]);
+                triplets[i] = Arrays.copyOf(triplets[i], count * 3);
+            });
+
+            for (int i = 0; i < independent.length; i++) {
+                for (int j = 0; j < triplets[i].length / 3; j++) {
+                    int from = triplets[i][j * 3];
+                    int to = triplets[i][j * 3 + 1];
+                    int middle = triplets[i][j * 3 + 2];
+                    contraction.out[from].put(to, weights[i][j], middle);
+                    contraction.in[to].put(from, weights[i][j], middle);
+                    shortcutCount++;
+                }
+            }
+
+            // Update priorities of the neighbours of the contracted nodes
+            IntStream.Builder update = IntStream.builder();
+            for (int node : independent) {
+                markNeighbours(contraction, node, touched, update);
+            }
+            int[] updated = update.build().toArray();
+            for (int node : updated) {
+                touched[node] = false;
+            }
+            IntStream.of(updated).parallel().forEach(
+                    node -> priority[node] = contraction.priority(node));
+
+            int kept = 0;
+            for (int i = 0; i < remainingCount; i++) {
+                if (!contraction.contracted[remaining[i]]) {
+                    remaining[kept++] = remaining[i];
+                }
+            }
+            remainingCount = kept;
+        }
+
+        return new ContractionHierarchy(graph, rank, contraction,
+                shortcutCount);
+    }
+
+    private static boolean isLocalMinimum(Contraction contraction,
+            int[] priority, int node) {
+        return isLowest(contraction, contraction.out[node], priority, node)
+                && isLowest(contraction, contraction.in[node], priority,
+                        node);
+    }
+
+    private static boolean isLowest(Contraction contraction, Links links,
+            int[] priority, int node) {
+        for (int i = 0; i < links.size; i++) {
+            int other = links.nodes[i];
+            if (contraction.contracted[other]) {
+                continue;
+            }
+            if (priority[other] < priority[node]
+                    || (priority[other] == priority[node] && other < node)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void markNeighbours(Contraction contraction, int node,
+            boolean[] touched, IntStream.Builder update) {
+        for (Links links : new Links[] { contraction.out[node],
+                contraction.in[node] }) {
+            for (int i = 0; i < links.size; i++) {
+                int other = links.nodes[i];
+                if (!contraction.contracted[other]) {
+                    if (!touched[other]) {
+                        touched[other] = true;
+                        update.add(other);
+                    }
+                    contraction.contractedNeighbours[other]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return graph this hierarchy was built for
+     */
+    public PathGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return amount of shortcut links added during preprocessing
+     */
+    public int getShortcutCount() {
+        return shortcutCount;
+    }
+
+    /**
+     * Get the shortest path between two nodes.
+     *
+     * @param source
+     *            index of start node
+     * @param target
+     *            index of end node
+     * @return nodes from source to target or an empty list if target can not
+     *         be reached
+     */
+    public LinkedList<Node> getShortestPath(final int source,
+            final int target) {
+        final SearchState forward = acquireState();
+        final SearchState backward = acquireState();
+        try {
+            forward.update(source, 0., -1);
+            forward.queue.insertOrDecrease(source, 0.);
+            backward.update(target, 0., -1);
+            backward.queue.insertOrDecrease(target, 0.);
+
+            double best = Double.POSITIVE_INFINITY;
+            int meeting = -1;
+            boolean forwardTurn = true;
+            while (!forward.queue.isEmpty() || !backward.queue.isEmpty()) {
+                if (forward.queue.isEmpty()
+                        || forward.queue.peekKey() >= best) {
+                    forward.queue.clear();
+                    forwardTurn = false;
+                }
+                if (backward.queue.isEmpty()
+                        || backward.queue.peekKey() >= best) {
+                    backward.queue.clear();
+                    forwardTurn = true;
+                }
+                if (forward.queue.isEmpty() && backward.queue.isEmpty()) {
+                    break;
+                }
+
+                SearchState current = forwardTurn ? forward : backward;
+                SearchState other = forwardTurn ? backward : forward;
+                int[] offsets = forwardTurn ? upOffsets : downOffsets;
+                int[] nodes = forwardTurn ? upTargets : downSources;
+                double[] weights = forwardTurn ? upWeights : downWeights;
+
+                final int u = current.queue.poll();
+                final double distanceToU = current.getDistance(u);
+                if (distanceToU + other.getDistance(u) < best) {
+                    best = distanceToU + other.getDistance(u);
+                    meeting = u;
+                }
+                for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                    final int v = nodes[e];
+                    final double distanceThroughU = distanceToU + weights[e];
+                    if (distanceThroughU < current.getDistance(v)) {
+                        current.update(v, distanceThroughU, u);
+                        current.queue.insertOrDecrease(v, distanceThroughU);
+                    }
+                }
+                forwardTurn = !forwardTurn;
+            }
+
+            LinkedList<Node> path = new LinkedList<>();
+            if (meeting == -1) {
+                return path;
+            }
+            LinkedList<Integer> route = new LinkedList<>();
+            for (int node = meeting; node != -1; node = forward
+                    .getPrevious(node)) {
+                route.addFirst(node);
+            }
+            for (int node = backward.getPrevious(meeting); node != -1; node = backward
+                    .getPrevious(node)) {
+                route.addLast(node);
+            }
+
+            path.add(graph.getNode(source));
+            int from = route.removeFirst();
+            for (int to : route) {
+                unpack(from, to, path);
+                from = to;
+            }
+            return path;
+        } finally {
+            releaseState(forward);
+            releaseState(backward);
+        }
+    }
+
+    /**
+     * Append the original nodes of link from-to, excluding from, to path.
+     */
+    private void unpack(int from, int to, LinkedList<Node> path) {
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[] { from, to });
+        while (!stack.isEmpty()) {
+            int[] link = stack.pop();
+            int middle = findMiddle(link[0], link[1]);
+            if (middle == -1) {
+                path.add(graph.getNode(link[1]));
+            } else {
+                // Second half is handled after the first half
+                stack.push(new int[] { middle, link[1] });
+                stack.push(new int[] { link[0], middle });
+            }
+        }
+    }
+
+    /**
+     * Get the middle node of the cheapest hierarchy link from-to or -1 if the
+     * link is an original link.
+     */
+    private int findMiddle(int from, int to) {
+        double weight = Double.POSITIVE_INFINITY;
+        int middle = -1;
+        if (rank[from] < rank[to]) {
+            for (int e = upOffsets[from]; e < upOffsets[from + 1]; e++) {
+                if (upTargets[e] == to && upWeights[e] < weight) {
+                    weight = upWeights[e];
+                    middle = upMiddles[e];
+                }
+            }
+        } else {
+            for (int e = downOffsets[to]; e < downOffsets[to + 1]; e++) {
+                if (downSources[e] == from && downWeights[e] < weight) {
+                    weight = downWeights[e];
+                    middle = downMiddles[e];
+                }
+            }
+        }
+        return middle;
+    }
+
+    private SearchState acquireState() {
+        SearchState state = statePool.poll();
+        if (state == null) {
+            state = new SearchState(graph.size());
+        }
+        state.reset();
+        return state;
+    }
+
+    private void releaseState(SearchState state) {
+        statePool.offer(state);
+    }
+}
@@ -0,0 +1,253 @@
+package org.percepta.mgrankvi.path;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Shortest path distances between every pair of a list of nodes, stored as a
+ * row major float matrix either on the heap or in a memory mapped file.
+ * <p>
+ * A single mapping can not exceed {@link Integer#MAX_VALUE} bytes, so a file
+ * is mapped as blocks of whole rows. A heap matrix is one block of at most
+ * {@link Integer#MAX_VALUE} floats.
+ * <p>
+ * Rows and columns are in the order of the node ids given when computing.
+ * Unreachable pairs have the distance {@link Float#POSITIVE_INFINITY}.
+ */
+public class DistanceMatrix {
+
+    // Sources handled by one fork-join task before splitting
+    private static final int SOURCES_PER_TASK = 4;
+
+    private final int[] nodeIds;
+    // Consecutive blocks of rowsPerBlock rows, the last may be shorter
+    private final FloatBuffer[] blocks;
+    private final int rowsPerBlock;
+    // Mappings of the blocks, null on the heap
+    private final MappedByteBuffer[] mapped;
+
+    private DistanceMatrix(int[] nodeIds, FloatBuffer[] blocks,
+            int rowsPerBlock, MappedByteBuffer[] mapped) {
+        this.nodeIds = nodeIds;
+        this.blocks = blocks;
+        this.rowsPerBlock = rowsPerBlock;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Compute matrix on the heap using the common fork-join pool.
+     *
+     * @param graph
+     *            graph to search
+     * @param nodeIds
+     *            ids of the nodes in matrix order, may contain duplicates
+     * @return distance matrix
+     */
+    public static DistanceMatrix compute(PathGraph graph, int[] nodeIds) {
+        int size = checkedSize(nodeIds);
+        DistanceMatrix matrix = new DistanceMatrix(nodeIds.clone(),
+                new FloatBuffer[] { FloatBuffer.wrap(new float[size]) },
+                Math.max(nodeIds.length, 1), null);
+        matrix.fill(graph, ForkJoinPool.commonPool());
+        return matrix;
+    }
+
+    /**
+     * Compute matrix into a memory mapped file using the given pool. The file
+     * is created or overwritten and holds the distances as native order
+     * floats, {@code 4 * n * n} bytes for n node ids.
+     *
+     * @param graph
+     *            graph to search
+     * @param nodeIds
+     *            ids of the nodes in matrix order, may contain duplicates
+     * @param file
+     *            file to map the matrix to
+     * @param pool
+     *            pool to run the searches in
+     * @return distance matrix
+     * @throws IOException
+     *             if the file could not be mapped
+     */
+    public static DistanceMatrix compute(PathGraph graph, int[] nodeIds,
+            Path file, ForkJoinPool pool) throws IOException {
+        int count = nodeIds.length;
+        long rowBytes = (long) count * Float.BYTES;
+        int rowsPerBlock = (int) Math.max(1,
+                Math.min(count, Integer.MAX_VALUE / Math.max(rowBytes, 1)));
+        int blockCount = (count + rowsPerBlock - 1) / rowsPerBlock;
+        FloatBuffer[] blocks = new FloatBuffer[blockCount];
+        MappedByteBuffer[] mapped = new MappedByteBuffer[blockCount];
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int block = 0; block < blockCount; block++) {
+                int rows = Math.min(rowsPerBlock,
+                        count - block * rowsPerBlock);
+                mapped[block] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) block * rowsPerBlock * rowBytes,
+                        rows * rowBytes);
+                mapped[block].order(ByteOrder.nativeOrder());
+                blocks[block] = mapped[block].asFloatBuffer();
+            }
+        }
+        DistanceMatrix matrix = new DistanceMatrix(nodeIds.clone(), blocks,
+                rowsPerBlock, mapped);
+        matrix.fill(graph, pool);
+        return matrix;
+    }
+
+    private static int checkedSize(int[] nodeIds) {
+        long size = (long) nodeIds.length * nodeIds.length;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                    "Too many nodes for a distance matrix: %d",
+                    nodeIds.length));
+        }
+        return (int) size;
+    }
+
+    /**
+     * Run one full search per distinct node and write its rows.
+     */
+    private void fill(PathGraph graph, ForkJoinPool pool) {
+        int count = nodeIds.length;
+        int[] columns = new int[count];
+        for (int i = 0; i < count; i++) {
+            columns[i] = graph.indexOf(nodeIds[i]);
+        }
+
+        // Rows sorted by node so that equal nodes share one search
+        long[] rowsByNode = new long[count];
+        for (int i = 0; i < count; i++) {
+            rowsByNode[i] = ((long) columns[i] << 32) | i;
+        }
+        Arrays.sort(rowsByNode);
+        int[] groupStarts = new int[count + 1];
+        int groups = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || (int) (rowsByNode[i] >> 32) != (int) (rowsByNode[i
+                    - 1] >> 32)) {
+                groupStarts[groups++] = i;
+            }
+        }
+        groupStarts[groups] = count;
+
+        pool.invoke(new RowsTask(graph, columns, rowsByNode, groupStarts, 0,
+                groups));
+    }
+
+    private class RowsTask extends RecursiveAction {
+        private final PathGraph graph;
+        private final int[] columns;
+        private final long[] rowsByNode;
+        private final int[] groupStarts;
+        private final int from;
+        private final int to;
+
+        RowsTask(PathGraph graph, int[] columns, long[] rowsByNode,
+                int[] groupStarts, int from, int to) {
+            this.graph = graph;
+            this.columns = columns;
+            this.rowsByNode = rowsByNode;
+            this.groupStarts = groupStarts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SOURCES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(
+                        new RowsTask(graph, columns, rowsByNode, groupStarts,
+                                from, middle),
+                        new RowsTask(graph, columns, rowsByNode, groupStarts,
+                                middle, to));
+                return;
+            }
+            int count = columns.length;
+            float[] row = new float[count];
+            for (int group = from; group < to; group++) {
+                int source = (int) (rowsByNode[groupStarts[group]] >> 32);
+                if (source == -1) {
+                    Arrays.fill(row, Float.POSITIVE_INFINITY);
+                } else {
+                    SearchState state = graph.acquireState();
+                    try {
+                        GraphDijkstra.computePaths(graph, state, source, -1);
+                        for (int column = 0; column < count; column++) {
+                            row[column] = columns[column] == -1
+                                    ? Float.POSITIVE_INFINITY
+                                    : (float) state
+                                            .getDistance(columns[column]);
+                        }
+                    } finally {
+                        graph.releaseState(state);
+                    }
+                }
+                for (int i = groupStarts[group]; i < groupStarts[group
+                        + 1]; i++) {
+                    int rowIndex = (int) rowsByNode[i];
+                    writeRow(rowIndex, row);
+                }
+            }
+        }
+    }
+
+    private void writeRow(int rowIndex, float[] row) {
+        // Duplicate shares the content but has its own position
+        FloatBuffer target = blocks[rowIndex / rowsPerBlock].duplicate();
+        target.position(rowIndex % rowsPerBlock * row.length);
+        target.put(row);
+    }
+
+    /**
+     * @return amount of rows and columns
+     */
+    public int size() {
+        return nodeIds.length;
+    }
+
+    /**
+     * @return node id of row and column index
+     */
+    public int getNodeId(int index) {
+        return nodeIds[index];
+    }
+
+    /**
+     * Get walking distance between matrix entries.
+     *
+     * @param row
+     *            index of start node
+     * @param column
+     *            index of end node
+     * @return distance or positive infinity if not reachable
+     */
+    public float getDistance(int row, int column) {
+        return blocks[row / rowsPerBlock]
+                .get(row % rowsPerBlock * nodeIds.length + column);
+    }
+
+    /**
+     * Write changes of a memory mapped matrix to its file. Does nothing for a
+     * matrix on the heap.
+     */
+    public void flush() {
+        if (mapped != null) {
+            for (MappedByteBuffer block : mapped) {
+                block.force();
+            }
+        }
+    }
+}
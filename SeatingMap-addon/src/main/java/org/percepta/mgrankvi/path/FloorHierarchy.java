@@ -0,0 +1,425 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Two level routing index for multi floor path graphs.
+ * <p>
+ * Nodes with a link to another floor (stairs, elevators) are portals. The
+ * bottom level keeps a table of shortest same floor distances between the
+ * portals of each floor. The top level is an overlay graph of only the portals
+ * using those table distances and the floor changing links. A cross floor
+ * query searches the start floor, the overlay and the end floor instead of
+ * the whole building.
+ * <p>
+ * The index is immutable. {@link #update(PathGraph, FloorHierarchy, Collection)}
+ * creates a new index reusing the floor tables of all floors that have not
+ * changed.
+ */
+public class FloorHierarchy {
+
+    /**
+     * Shortest same floor distances between the portals of one floor.
+     */
+    private static class FloorTable {
+        final int floor;
+        final int[] portalIds;
+        // portalIds.length x portalIds.length distances, row is the start
+        final double[] distances;
+
+        FloorTable(int floor, int[] portalIds, double[] distances) {
+            this.floor = floor;
+            this.portalIds = portalIds;
+            this.distances = distances;
+        }
+    }
+
+    private final PathGraph graph;
+    private final Map<Integer, FloorTable> tables;
+
+    // Overlay graph of portals in CSR form
+    private final int[] portals;
+    private final int[] overlayIndex;
+    private final int[] overlayOffsets;
+    private final int[] overlayTargets;
+    private final double[] overlayWeights;
+
+    private FloorHierarchy(PathGraph graph, Map<Integer, FloorTable> tables) {
+        this.graph = graph;
+        this.tables = tables;
+
+        overlayIndex = new int[graph.size()];
+        Arrays.fill(overlayIndex, -1);
+        int count = 0;
+        int links = 0;
+        for (FloorTable table : tables.values()) {
+            count += table.portalIds.length;
+        }
+        portals = new int[count];
+        count = 0;
+        for (FloorTable table : tables.values()) {
+            for (int id : table.portalIds) {
+                int node = graph.indexOf(id);
+                overlayIndex[node] = count;
+                portals[count++] = node;
+                links += table.portalIds.length - 1;
+                links += graph.lastLink(node) - graph.firstLink(node);
+            }
+        }
+
+        // Portals are numbered table by table in the same order as above
+        overlayOffsets = new int[count + 1];
+        int[] targets = new int[links];
+        double[] weights = new double[links];
+        int portal = 0;
+        links = 0;
+        for (FloorTable table : tables.values()) {
+            int portalCount = table.portalIds.length;
+            for (int row = 0; row < portalCount; row++, portal++) {
+                overlayOffsets[portal] = links;
+                for (int column = 0; column < portalCount; column++) {
+                    double distance = table.distances[row * portalCount
+                            + column];
+                    if (column == row
+                            || distance == Double.POSITIVE_INFINITY) {
+                        continue;
+                    }
+                    targets[links] = portal - row + column;
+                    weights[links++] = distance;
+                }
+                int node = portals[portal];
+                for (int e = graph.firstLink(node); e < graph
+                        .lastLink(node); e++) {
+                    int target = graph.linkTarget(e);
+                    if (graph.getFloor(target) != table.floor) {
+                        targets[links] = overlayIndex[target];
+                        weights[links++] = graph.linkWeight(e);
+                    }
+                }
+            }
+        }
+        overlayOffsets[count] = links;
+        overlayTargets = Arrays.copyOf(targets, links);
+        overlayWeights = Arrays.copyOf(weights, links);
+    }
+
+    /**
+     * Build index for all floors of graph.
+     *
+     * @param graph
+     *            graph to index
+     * @return routing index
+     */
+    public static FloorHierarchy build(PathGraph graph) {
+        return update(graph, null, null);
+    }
+
+    /**
+     * Build index for graph reusing the tables of the previous index for
+     * floors that have not changed. Portals and node ids of unchanged floors
+     * need to be the same in both graphs.
+     *
+     * @param graph
+     *            current graph
+     * @param previous
+     *            index built for an earlier version of the graph or null
+     * @param changedFloors
+     *            floors whose paths or floor links changed since previous was
+     *            built, null if all floors should be rebuilt
+     * @return routing index for graph
+     */
+    public static FloorHierarchy update(PathGraph graph,
+            FloorHierarchy previous, Collection<Integer> changedFloors) {
+        // Collect portals by floor
+        Map<Integer, int[]> portalsByFloor = new HashMap<>();
+        Map<Integer, Integer> portalCounts = new HashMap<>();
+        for (int node = 0; node < graph.size(); node++) {
+            if (isPortal(graph, node)) {
+                portalCounts.merge(graph.getFloor(node), 1, Integer::sum);
+            }
+        }
+        portalCounts.forEach(
+                (floor, amount) -> portalsByFloor.put(floor, new int[amount]));
+        Map<Integer, Integer> filled = new HashMap<>();
+        for (int node = 0; node < graph.size(); node++) {
+            if (isPortal(graph, node)) {
+                int floor = graph.getFloor(node);
+                int position = filled.merge(floor, 1, Integer::sum) - 1;
+                portalsByFloor.get(floor)[position] = graph.getNode(node)
+                        .getId();
+            }
+        }
+        // Keep portal order independent of the node order in the graph
+        portalsByFloor.values().forEach(Arrays::sort);
+
+        Map<Integer, FloorTable> tables = new HashMap<>();
+        SearchState state = graph.acquireState();
+        try {
+            for (Map.Entry<Integer, int[]> entry : portalsByFloor.entrySet()) {
+                int floor = entry.getKey();
+                int[] portalIds = entry.getValue();
+                FloorTable old = previous == null ? null
+                        : previous.tables.get(floor);
+                if (old != null && changedFloors != null
+                        && !changedFloors.contains(floor)
+                        && Arrays.equals(old.portalIds, portalIds)) {
+                    tables.put(floor, old);
+                } else {
+                    tables.put(floor,
+                            buildTable(graph, state, floor, portalIds));
+                }
+            }
+        } finally {
+            graph.releaseState(state);
+        }
+        return new FloorHierarchy(graph, tables);
+    }
+
+    private static boolean isPortal(PathGraph graph, int node) {
+        int floor = graph.getFloor(node);
+        for (int e = graph.firstLink(node); e < graph.lastLink(node); e++) {
+            if (graph.getFloor(graph.linkTarget(e)) != floor) {
+                return true;
+            }
+        }
+        for (int e = graph.firstReverseLink(node); e < graph
+                .lastReverseLink(node); e++) {
+            if (graph.getFloor(graph.reverseLinkSource(e)) != floor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static FloorTable buildTable(PathGraph graph, SearchState state,
+            int floor, int[] portalIds) {
+        int count = portalIds.length;
+        double[] distances = new double[count * count];
+        for (int row = 0; row < count; row++) {
+            state.reset();
+            searchFloor(graph, state, graph.indexOf(portalIds[row]), -1, false);
+            for (int column = 0; column < count; column++) {
+                distances[row * count + column] = state
+                        .getDistance(graph.indexOf(portalIds[column]));
+            }
+        }
+        return new FloorTable(floor, portalIds, distances);
+    }
+
+    /**
+     * Dijkstra search that does not leave the floor of the source node.
+     *
+     * @param reverse
+     *            true to search over incoming links
+     */
+    private static void searchFloor(PathGraph graph, SearchState state,
+            int source, int target, boolean reverse) {
+        final int floor = graph.getFloor(source);
+        final IndexedHeap queue = state.queue;
+        state.update(source, 0., -1);
+        queue.insertOrDecrease(source, 0.);
+
+        while (!queue.isEmpty()) {
+            final int u = queue.poll();
+            if (u == target) {
+                return;
+            }
+            final double distanceToU = state.getDistance(u);
+            final int first = reverse ? graph.firstReverseLink(u)
+                    : graph.firstLink(u);
+            final int last = reverse ? graph.lastReverseLink(u)
+                    : graph.lastLink(u);
+            for (int e = first; e < last; e++) {
+                final int v = reverse ? graph.reverseLinkSource(e)
+                        : graph.linkTarget(e);
+                if (graph.getFloor(v) != floor) {
+                    continue;
+                }
+                final double distanceThroughU = distanceToU + (reverse
+                        ? graph.reverseLinkWeight(e) : graph.linkWeight(e));
+                if (distanceThroughU < state.getDistance(v)) {
+                    state.update(v, distanceThroughU, u);
+                    queue.insertOrDecrease(v, distanceThroughU);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return graph this index was built for
+     */
+    public PathGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return amount of portal nodes in the overlay graph
+     */
+    public int getPortalCount() {
+        return portals.length;
+    }
+
+    /**
+     * Get the shortest path between two nodes.
+     *
+     * @param source
+     *            index of start node
+     * @param target
+     *            index of end node
+     * @return nodes from source to target or an empty list if target can not
+     *         be reached
+     */
+    public LinkedList<Node> getShortestPath(final int source,
+            final int target) {
+        final SearchState forward = graph.acquireState();
+        final SearchState backward = graph.acquireState();
+        try {
+            // Start floor search also finds same floor routes
+            searchToPortals(forward, source, target, false);
+            searchToPortals(backward, target, source, true);
+            double best = forward.getDistance(target);
+
+            // Overlay search seeded with the start floor portals
+            final int count = portals.length;
+            final double[] distance = new double[count];
+            final int[] previous = new int[count];
+            Arrays.fill(distance, Double.POSITIVE_INFINITY);
+            Arrays.fill(previous, -1);
+            final IndexedHeap queue = new IndexedHeap(count);
+            for (int i = 0; i < count; i++) {
+                double seed = forward.getDistance(portals[i]);
+                if (seed < Double.POSITIVE_INFINITY) {
+                    distance[i] = seed;
+                    queue.insertOrDecrease(i, seed);
+                }
+            }
+
+            int exit = -1;
+            while (!queue.isEmpty() && queue.peekKey() < best) {
+                final int u = queue.poll();
+                final double total = distance[u]
+                        + backward.getDistance(portals[u]);
+                if (total < best) {
+                    best = total;
+                    exit = u;
+                }
+                for (int e = overlayOffsets[u]; e < overlayOffsets[u
+                        + 1]; e++) {
+                    final int v = overlayTargets[e];
+                    final double distanceThroughU = distance[u]
+                            + overlayWeights[e];
+                    if (distanceThroughU < distance[v]) {
+                        distance[v] = distanceThroughU;
+                        previous[v] = u;
+                        queue.insertOrDecrease(v, distanceThroughU);
+                    }
+                }
+            }
+
+            if (best == Double.POSITIVE_INFINITY) {
+                return new LinkedList<>();
+            }
+            if (exit == -1) {
+                return graph.collectPath(forward, target);
+            }
+            return unpack(forward, backward, previous, exit);
+        } finally {
+            graph.releaseState(forward);
+            graph.releaseState(backward);
+        }
+    }
+
+    /**
+     * Search the floor of source until its portals and target, when on the
+     * same floor, are settled. Nodes past a settled target are no shorter than
+     * the same floor route, so the search ends there as well. Unsettled nodes
+     * keep their tentative distances, which are never below the target
+     * distance and so never seed a shorter route.
+     *
+     * @param reverse
+     *            true to search over incoming links
+     */
+    private void searchToPortals(SearchState state, int source, int target,
+            boolean reverse) {
+        final int floor = graph.getFloor(source);
+        final IndexedHeap queue = state.queue;
+        FloorTable table = tables.get(floor);
+        int remaining = table == null ? 0 : table.portalIds.length;
+        if (graph.getFloor(target) == floor) {
+            remaining++;
+        }
+        state.update(source, 0., -1);
+        queue.insertOrDecrease(source, 0.);
+
+        while (!queue.isEmpty() && remaining > 0) {
+            final int u = queue.poll();
+            if (u == target) {
+                return;
+            }
+            if (overlayIndex[u] != -1) {
+                remaining--;
+            }
+            final double distanceToU = state.getDistance(u);
+            final int first = reverse ? graph.firstReverseLink(u)
+                    : graph.firstLink(u);
+            final int last = reverse ? graph.lastReverseLink(u)
+                    : graph.lastLink(u);
+            for (int e = first; e < last; e++) {
+                final int v = reverse ? graph.reverseLinkSource(e)
+                        : graph.linkTarget(e);
+                if (graph.getFloor(v) != floor) {
+                    continue;
+                }
+                final double distanceThroughU = distanceToU + (reverse
+                        ? graph.reverseLinkWeight(e) : graph.linkWeight(e));
+                if (distanceThroughU < state.getDistance(v)) {
+                    state.update(v, distanceThroughU, u);
+                    queue.insertOrDecrease(v, distanceThroughU);
+                }
+            }
+        }
+    }
+
+    /**
+     * Expand the overlay route into graph nodes. Same floor portal hops are
+     * expanded with a search on that floor.
+     */
+    private LinkedList<Node> unpack(SearchState forward, SearchState backward,
+            int[] previous, int exit) {
+        LinkedList<Integer> overlayRoute = new LinkedList<>();
+        for (int portal = exit; portal != -1; portal = previous[portal]) {
+            overlayRoute.addFirst(portal);
+        }
+
+        LinkedList<Node> path = graph.collectPath(forward,
+                portals[overlayRoute.getFirst()]);
+        SearchState hop = graph.acquireState();
+        try {
+            int from = portals[overlayRoute.removeFirst()];
+            for (int portal : overlayRoute) {
+                int to = portals[portal];
+                if (graph.getFloor(from) != graph.getFloor(to)) {
+                    path.add(graph.getNode(to));
+                } else {
+                    hop.reset();
+                    searchFloor(graph, hop, from, to, false);
+                    LinkedList<Node> segment = graph.collectPath(hop, to);
+                    segment.removeFirst();
+                    path.addAll(segment);
+                }
+                from = to;
+            }
+            for (int node = backward.getPrevious(from); node != -1; node = backward
+                    .getPrevious(node)) {
+                path.add(graph.getNode(node));
+            }
+        } finally {
+            graph.releaseState(hop);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,79 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.LinkedList;
+
+/**
+ * Dijkstra shortest path search over a frozen {@link PathGraph} using an
+ * {@link IndexedHeap} for decrease-key.
+ * <p>
+ * Searches keep their distances and predecessors in a {@link SearchState} and
+ * never touch the graph or its nodes, so queries are thread-safe.
+ */
+public class GraphDijkstra {
+
+    /**
+     * Get the shortest path between two nodes. The search stops as soon as the
+     * target node is settled.
+     *
+     * @param graph
+     *            graph to search
+     * @param source
+     *            index of start node
+     * @param target
+     *            index of end node
+     * @return nodes from source to target or an empty list if target can not
+     *         be reached
+     */
+    public static LinkedList<Node> getShortestPath(final PathGraph graph,
+            final int source, final int target) {
+        final SearchState state = graph.acquireState();
+        try {
+            computePaths(graph, state, source, target);
+            if (!state.isReached(target)) {
+                return new LinkedList<>();
+            }
+            return graph.collectPath(state, target);
+        } finally {
+            graph.releaseState(state);
+        }
+    }
+
+    /**
+     * Run search from source into given state.
+     *
+     * @param graph
+     *            graph to search
+     * @param state
+     *            cleared state to write distances and predecessors to
+     * @param source
+     *            index of start node
+     * @param target
+     *            index of node to stop at when settled or -1 to settle the
+     *            whole reachable graph
+     */
+    public static void computePaths(final PathGraph graph,
+            final SearchState state, final int source, final int target) {
+        final IndexedHeap queue = state.queue;
+        state.update(source, 0., -1);
+        queue.insertOrDecrease(source, 0.);
+
+        while (!queue.isEmpty()) {
+            final int u = queue.poll();
+            if (u == target) {
+                return;
+            }
+            final double distanceToU = state.getDistance(u);
+
+            // Visit each edge exiting u
+            for (int e = graph.firstLink(u); e < graph.lastLink(u); e++) {
+                final int v = graph.linkTarget(e);
+                final double distanceThroughU = distanceToU
+                        + graph.linkWeight(e);
+                if (distanceThroughU < state.getDistance(v)) {
+                    state.update(v, distanceThroughU, u);
+                    queue.insertOrDecrease(v, distanceThroughU);
+                }
+            }
+        }
+    }
+}
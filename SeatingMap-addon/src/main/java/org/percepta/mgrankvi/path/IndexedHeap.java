@@ -0,0 +1,141 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap over the dense node indices of a {@link PathGraph}.
+ * <p>
+ * Every node index has a fixed slot in the position table, so checking if a
+ * node is queued and lowering its key are O(1) and O(log n) instead of the
+ * linear scan {@code PriorityQueue.remove(Object)} does.
+ */
+public class IndexedHeap {
+
+    private final int[] heap;
+    private final int[] position;
+    private final double[] keys;
+    private int size;
+
+    /**
+     * Create heap for node indices in range [0, capacity).
+     *
+     * @param capacity
+     *            amount of nodes in the graph
+     */
+    public IndexedHeap(int capacity) {
+        heap = new int[capacity];
+        position = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int node) {
+        return position[node] != -1;
+    }
+
+    /**
+     * Add node to heap or lower the key of an already queued node. A key that
+     * is not lower than the current one is ignored.
+     *
+     * @param node
+     *            node index
+     * @param key
+     *            new key for node
+     */
+    public void insertOrDecrease(int node, double key) {
+        int index = position[node];
+        if (index == -1) {
+            index = size++;
+            heap[index] = node;
+            position[node] = index;
+            keys[node] = key;
+            siftUp(index);
+        } else if (key < keys[node]) {
+            keys[node] = key;
+            siftUp(index);
+        }
+    }
+
+    /**
+     * @return key of the minimum node
+     */
+    public double peekKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Remove and return the node with the smallest key.
+     *
+     * @return node index
+     */
+    public int poll() {
+        int top = heap[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            int last = heap[size];
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Empty the heap. Only touches the nodes still queued so the heap can be
+     * reused between searches without an O(n) reset.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int index) {
+        int node = heap[index];
+        double key = keys[node];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            int parentNode = heap[parent];
+            if (keys[parentNode] <= key) {
+                break;
+            }
+            heap[index] = parentNode;
+            position[parentNode] = index;
+            index = parent;
+        }
+        heap[index] = node;
+        position[node] = index;
+    }
+
+    private void siftDown(int index) {
+        int node = heap[index];
+        double key = keys[node];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && keys[heap[right]] < keys[heap[child]]) {
+                child = right;
+            }
+            int childNode = heap[child];
+            if (key <= keys[childNode]) {
+                break;
+            }
+            heap[index] = childNode;
+            position[childNode] = index;
+            index = child;
+        }
+        heap[index] = node;
+        position[node] = index;
+    }
+}
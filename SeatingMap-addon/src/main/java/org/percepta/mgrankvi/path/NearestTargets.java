@@ -0,0 +1,72 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Find the nodes of a target set closest to a start node by walking distance.
+ * <p>
+ * A single Dijkstra search is run from the start and stopped as soon as the
+ * requested amount of targets have been settled, so the cost depends on how
+ * far away the targets are and not on the size of the set.
+ */
+public class NearestTargets {
+
+    /**
+     * Get the k targets closest to source.
+     *
+     * @param graph
+     *            graph to search
+     * @param source
+     *            index of start node
+     * @param targets
+     *            indexes of candidate nodes, duplicates and -1 are ignored
+     * @param k
+     *            maximum amount of targets to return
+     * @return reachable targets ordered by distance, at most k
+     */
+    public static List<RouteMatch<Node>> find(final PathGraph graph,
+            final int source, final int[] targets, final int k) {
+        final List<RouteMatch<Node>> matches = new ArrayList<>(
+                Math.max(0, Math.min(k, targets.length)));
+        if (source == -1 || k <= 0) {
+            return matches;
+        }
+        // Sorted for membership checks without a per query graph sized array
+        final int[] sorted = targets.clone();
+        Arrays.sort(sorted);
+
+        final SearchState state = graph.acquireState();
+        try {
+            final IndexedHeap queue = state.queue;
+            state.update(source, 0., -1);
+            queue.insertOrDecrease(source, 0.);
+
+            while (!queue.isEmpty()) {
+                final int u = queue.poll();
+                final double distanceToU = state.getDistance(u);
+                if (Arrays.binarySearch(sorted, u) >= 0) {
+                    matches.add(new RouteMatch<>(graph.getNode(u),
+                            distanceToU, graph.collectPath(state, u)));
+                    if (matches.size() == k) {
+                        break;
+                    }
+                }
+
+                for (int e = graph.firstLink(u); e < graph.lastLink(u); e++) {
+                    final int v = graph.linkTarget(e);
+                    final double distanceThroughU = distanceToU
+                            + graph.linkWeight(e);
+                    if (distanceThroughU < state.getDistance(v)) {
+                        state.update(v, distanceThroughU, u);
+                        queue.insertOrDecrease(v, distanceThroughU);
+                    }
+                }
+            }
+        } finally {
+            graph.releaseState(state);
+        }
+        return matches;
+    }
+}
@@ -13,6 +13,7 @@ public class Node implements Comparable<Node> {
 
     public double minDistance = Double.POSITIVE_INFINITY;
     public Node previous;
+    // Floor the node is on
     public int level;
 
     private Node() {
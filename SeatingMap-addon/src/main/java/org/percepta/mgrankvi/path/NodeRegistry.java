@@ -0,0 +1,292 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.percepta.mgrankvi.client.geometry.Point;
+
+/**
+ * Path nodes by id and by exact position on a floor.
+ * <p>
+ * Nodes are kept in an array in registration order. Ids are mapped to their
+ * array index with an open addressing hash table, so any int is a valid id.
+ * Nodes created by the registry get the smallest free id counting up from 0.
+ * Each floor keeps an open addressing hash table from packed coordinates to
+ * node index, making position lookups allocation free. Two positions only
+ * match if both coordinates are exactly equal.
+ */
+public class NodeRegistry {
+
+    private static final int NO_NODE = -1;
+
+    // Nodes in registration order
+    private Node[] nodes = new Node[16];
+    private int nodeCount;
+    // Node id to index in nodes
+    private final IdIndex ids = new IdIndex();
+    // Next id to try for a created node
+    private int nextId;
+
+    // Position index of each floor, floors are few so they are scanned
+    private int[] floorKeys = new int[0];
+    private PositionIndex[] floorIndexes = new PositionIndex[0];
+
+    /**
+     * Get node at position of floor.
+     *
+     * @param point
+     *            node position
+     * @param floor
+     *            floor of node
+     * @return node or null if there is no node at the exact position
+     */
+    public Node get(Point point, int floor) {
+        PositionIndex index = getIndex(floor, false);
+        if (index == null) {
+            return null;
+        }
+        int i = index.get(point.getX(), point.getY());
+        return i == NO_NODE ? null : nodes[i];
+    }
+
+    /**
+     * Get node at position of floor, creating a new node with the smallest
+     * free id from 0 up if there is none. A new node gets a copy of point as
+     * its position.
+     *
+     * @param point
+     *            node position
+     * @param floor
+     *            floor of node
+     * @return existing or created node
+     */
+    public Node getOrCreate(Point point, int floor) {
+        Node node = get(point, floor);
+        if (node == null) {
+            while (ids.get(nextId) != NO_NODE) {
+                nextId++;
+            }
+            node = new Node(nextId++, point.clonePoint());
+            node.level = floor;
+            register(node);
+        }
+        return node;
+    }
+
+    /**
+     * Add a node created outside the registry. Registering the same node
+     * again does nothing. The node is found by position on
+     * {@link Node#level} unless another node is already at that position.
+     *
+     * @param node
+     *            node to add
+     * @throws IllegalArgumentException
+     *             if another node with the same id is registered
+     */
+    public void register(Node node) {
+        int id = node.getId();
+        int existing = ids.get(id);
+        if (existing != NO_NODE) {
+            if (nodes[existing] == node) {
+                return;
+            }
+            throw new IllegalArgumentException(String
+                    .format("Another node with id %d is already registered", id));
+        }
+        if (nodeCount == nodes.length) {
+            nodes = Arrays.copyOf(nodes, nodes.length * 2);
+        }
+        int index = nodeCount++;
+        nodes[index] = node;
+        ids.put(id, index);
+
+        Point position = node.getPosition();
+        PositionIndex positions = getIndex(node.level, true);
+        if (positions.get(position.getX(), position.getY()) == NO_NODE) {
+            positions.put(position.getX(), position.getY(), index);
+        }
+    }
+
+    /**
+     * @return node with id or null if there is none
+     */
+    public Node get(int id) {
+        int index = ids.get(id);
+        return index == NO_NODE ? null : nodes[index];
+    }
+
+    /**
+     * @return true if a node with id exists
+     */
+    public boolean contains(int id) {
+        return ids.get(id) != NO_NODE;
+    }
+
+    /**
+     * @return amount of registered nodes
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return all registered nodes in id order
+     */
+    public List<Node> getNodes() {
+        List<Node> result = new ArrayList<>(Arrays.asList(nodes).subList(0,
+                nodeCount));
+        result.sort(Comparator.comparingInt(Node::getId));
+        return result;
+    }
+
+    private PositionIndex getIndex(int floor, boolean create) {
+        for (int i = 0; i < floorKeys.length; i++) {
+            if (floorKeys[i] == floor) {
+                return floorIndexes[i];
+            }
+        }
+        if (!create) {
+            return null;
+        }
+        int count = floorKeys.length;
+        floorKeys = Arrays.copyOf(floorKeys, count + 1);
+        floorIndexes = Arrays.copyOf(floorIndexes, count + 1);
+        floorKeys[count] = floor;
+        floorIndexes[count] = new PositionIndex();
+        return floorIndexes[count];
+    }
+
+    /**
+     * Linear probing hash table from a position to a node id.
+     * <p>
+     * The key packs the float bits of both coordinates. As different doubles
+     * can round to the same float the exact position is compared from the
+     * node before a slot is accepted.
+     */
+    private class PositionIndex {
+        private long[] keys = new long[16];
+        private int[] indexes = new int[16];
+        private int used;
+
+        PositionIndex() {
+            Arrays.fill(indexes, NO_NODE);
+        }
+
+        int get(double x, double y) {
+            long key = pack(x, y);
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; indexes[slot] != NO_NODE; slot = (slot
+                    + 1) & mask) {
+                if (keys[slot] == key && isAt(indexes[slot], x, y)) {
+                    return indexes[slot];
+                }
+            }
+            return NO_NODE;
+        }
+
+        void put(double x, double y, int index) {
+            if ((used + 1) * 2 > keys.length) {
+                grow();
+            }
+            insert(pack(x, y), index);
+            used++;
+        }
+
+        private void insert(long key, int index) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (indexes[slot] != NO_NODE) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            indexes[slot] = index;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldIndexes = indexes;
+            keys = new long[oldKeys.length * 2];
+            indexes = new int[oldIndexes.length * 2];
+            Arrays.fill(indexes, NO_NODE);
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldIndexes[slot] != NO_NODE) {
+                    insert(oldKeys[slot], oldIndexes[slot]);
+                }
+            }
+        }
+
+        private boolean isAt(int index, double x, double y) {
+            Point position = nodes[index].getPosition();
+            return position.getX() == x && position.getY() == y;
+        }
+    }
+
+    /**
+     * Linear probing hash table from a node id to a node index. Entries are
+     * never removed.
+     */
+    private static class IdIndex {
+        private int[] keys = new int[16];
+        private int[] indexes = new int[16];
+        private int used;
+
+        IdIndex() {
+            Arrays.fill(indexes, NO_NODE);
+        }
+
+        int get(int id) {
+            int mask = keys.length - 1;
+            for (int slot = hash(id) & mask; indexes[slot] != NO_NODE; slot = (slot
+                    + 1) & mask) {
+                if (keys[slot] == id) {
+                    return indexes[slot];
+                }
+            }
+            return NO_NODE;
+        }
+
+        void put(int id, int index) {
+            if ((used + 1) * 2 > keys.length) {
+                grow();
+            }
+            insert(id, index);
+            used++;
+        }
+
+        private void insert(int id, int index) {
+            int mask = keys.length - 1;
+            int slot = hash(id) & mask;
+            while (indexes[slot] != NO_NODE) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = id;
+            indexes[slot] = index;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldIndexes = indexes;
+            keys = new int[oldKeys.length * 2];
+            indexes = new int[oldIndexes.length * 2];
+            Arrays.fill(indexes, NO_NODE);
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldIndexes[slot] != NO_NODE) {
+                    insert(oldKeys[slot], oldIndexes[slot]);
+                }
+            }
+        }
+    }
+
+    private static long pack(double x, double y) {
+        return ((long) Float.floatToIntBits((float) x + 0f) << 32)
+                | (Float.floatToIntBits((float) y + 0f) & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        // Spread bits with the 64 bit golden ratio multiplier
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+}
@@ -0,0 +1,372 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Immutable snapshot of a {@link Node}/{@link Link} graph in compressed sparse
+ * row form.
+ * <p>
+ * Nodes get a dense index in [0, size()) and the outgoing links of node
+ * {@code i} are found in {@code targets} and {@code weights} between
+ * {@code offsets[i]} and {@code offsets[i + 1]}. Changes made to the nodes
+ * after the snapshot was taken are not seen by the graph.
+ * <p>
+ * The graph is never modified by searches. Search state is kept in pooled
+ * {@link SearchState} buffers, so any number of threads can query the same
+ * graph at the same time.
+ */
+public class PathGraph {
+
+    private final Node[] nodes;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] weights;
+
+    // Incoming links for searching backwards from a target
+    private final int[] reverseOffsets;
+    private final int[] reverseSources;
+    private final int[] reverseWeights;
+
+    // Node positions and floors for search heuristics
+    private final double[] x;
+    private final double[] y;
+    private final int[] floor;
+    private final double heuristicScale;
+    private final double floorChangeCost;
+    private final boolean symmetric;
+
+    // Node ids sorted with the matching node index for id lookups
+    private final int[] sortedIds;
+    private final int[] sortedIndexes;
+    // True when ids are exactly 0 to size - 1 and can index sortedIndexes
+    private final boolean denseIds;
+
+    private final Queue<SearchState> statePool = new ConcurrentLinkedQueue<>();
+
+    private PathGraph(Node[] nodes, int[] offsets, int[] targets,
+            int[] weights, int[] sortedIds, int[] sortedIndexes) {
+        this.nodes = nodes;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.sortedIds = sortedIds;
+        this.sortedIndexes = sortedIndexes;
+        // Ids are unique, so the first and last id tell if they are dense
+        denseIds = sortedIds.length > 0 && sortedIds[0] == 0
+                && sortedIds[sortedIds.length - 1] == sortedIds.length - 1;
+
+        int size = nodes.length;
+        reverseOffsets = new int[size + 1];
+        reverseSources = new int[targets.length];
+        reverseWeights = new int[targets.length];
+        for (int target : targets) {
+            reverseOffsets[target + 1]++;
+        }
+        for (int i = 0; i < size; i++) {
+            reverseOffsets[i + 1] += reverseOffsets[i];
+        }
+        int[] fill = Arrays.copyOf(reverseOffsets, size);
+        for (int u = 0; u < size; u++) {
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int position = fill[targets[e]]++;
+                reverseSources[position] = u;
+                reverseWeights[position] = weights[e];
+            }
+        }
+
+        x = new double[size];
+        y = new double[size];
+        floor = new int[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = nodes[i].getPosition().getX();
+            y[i] = nodes[i].getPosition().getY();
+            floor[i] = nodes[i].level;
+        }
+
+        // Link weights are not required to be link lengths, so scale the
+        // euclidean distance down to the cheapest weight per length unit.
+        // This keeps the heuristic admissible and consistent.
+        double scale = Double.POSITIVE_INFINITY;
+        for (int u = 0; u < size; u++) {
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                double length = distance(u, targets[e]);
+                if (length > 0) {
+                    scale = Math.min(scale, Math.max(0, weights[e]) / length);
+                }
+            }
+        }
+        heuristicScale = scale == Double.POSITIVE_INFINITY ? 0 : scale;
+
+        // Cheapest extra cost of changing floor on top of the scaled length
+        double floorCost = Double.POSITIVE_INFINITY;
+        for (int u = 0; u < size; u++) {
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                int v = targets[e];
+                if (floor[u] != floor[v]) {
+                    floorCost = Math.min(floorCost, Math.max(0,
+                            weights[e] - heuristicScale * distance(u, v)));
+                }
+            }
+        }
+        floorChangeCost = floorCost == Double.POSITIVE_INFINITY ? 0
+                : floorCost;
+
+        symmetric = checkSymmetric();
+    }
+
+    private boolean checkSymmetric() {
+        for (int u = 0; u < nodes.length; u++) {
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                if (!hasLink(targets[e], u, weights[e])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean hasLink(int from, int to, int weight) {
+        for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+            if (targets[e] == to && weights[e] == weight) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Freeze given nodes into a graph. Links to nodes that are not part of the
+     * collection are dropped.
+     *
+     * @param pathNodes
+     *            nodes of the graph, node ids need to be unique
+     * @return frozen graph
+     */
+    public static PathGraph build(Collection<Node> pathNodes) {
+        Node[] nodes = pathNodes.toArray(new Node[pathNodes.size()]);
+        int size = nodes.length;
+
+        long[] idIndex = new long[size];
+        for (int i = 0; i < size; i++) {
+            idIndex[i] = ((long) nodes[i].getId() << 32) | i;
+        }
+        Arrays.sort(idIndex);
+        int[] sortedIds = new int[size];
+        int[] sortedIndexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            sortedIds[i] = (int) (idIndex[i] >> 32);
+            sortedIndexes[i] = (int) idIndex[i];
+        }
+
+        int[] offsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            offsets[i + 1] = offsets[i] + nodes[i].getLinks().size();
+        }
+        int[] targets = new int[offsets[size]];
+        int[] weights = new int[offsets[size]];
+
+        int edge = 0;
+        for (int i = 0; i < size; i++) {
+            offsets[i] = edge;
+            for (Link link : nodes[i].getLinks()) {
+                int target = find(sortedIds, sortedIndexes, nodes,
+                        link.getTarget());
+                if (target == -1) {
+                    continue;
+                }
+                targets[edge] = target;
+                weights[edge] = link.getWeight();
+                edge++;
+            }
+        }
+        offsets[size] = edge;
+        if (edge != targets.length) {
+            targets = Arrays.copyOf(targets, edge);
+            weights = Arrays.copyOf(weights, edge);
+        }
+
+        return new PathGraph(nodes, offsets, targets, weights, sortedIds,
+                sortedIndexes);
+    }
+
+    private static int find(int[] sortedIds, int[] sortedIndexes,
+            Node[] nodes, Node node) {
+        int position = Arrays.binarySearch(sortedIds, node.getId());
+        if (position < 0 || nodes[sortedIndexes[position]] != node) {
+            return -1;
+        }
+        return sortedIndexes[position];
+    }
+
+    /**
+     * @return amount of nodes in graph
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * @return amount of directed links in graph
+     */
+    public int linkCount() {
+        return targets.length;
+    }
+
+    /**
+     * @return true if every link has a reverse link with the same weight, as
+     *         links made with {@link Node#connectNodes(Node, int)} do
+     */
+    public boolean isSymmetric() {
+        return symmetric;
+    }
+
+    /**
+     * Get the dense index for node id.
+     *
+     * @param nodeId
+     *            id of node
+     * @return node index or -1 if node is not in graph
+     */
+    public int indexOf(int nodeId) {
+        if (denseIds) {
+            return nodeId < 0 || nodeId >= sortedIndexes.length ? -1
+                    : sortedIndexes[nodeId];
+        }
+        int position = Arrays.binarySearch(sortedIds, nodeId);
+        return position < 0 ? -1 : sortedIndexes[position];
+    }
+
+    public Node getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * @return index of first outgoing link of node
+     */
+    public int firstLink(int index) {
+        return offsets[index];
+    }
+
+    /**
+     * @return index after the last outgoing link of node
+     */
+    public int lastLink(int index) {
+        return offsets[index + 1];
+    }
+
+    public int linkTarget(int link) {
+        return targets[link];
+    }
+
+    public int linkWeight(int link) {
+        return weights[link];
+    }
+
+    /**
+     * @return index of first incoming link of node
+     */
+    public int firstReverseLink(int index) {
+        return reverseOffsets[index];
+    }
+
+    /**
+     * @return index after the last incoming link of node
+     */
+    public int lastReverseLink(int index) {
+        return reverseOffsets[index + 1];
+    }
+
+    public int reverseLinkSource(int link) {
+        return reverseSources[link];
+    }
+
+    public int reverseLinkWeight(int link) {
+        return reverseWeights[link];
+    }
+
+    /**
+     * @return floor of node as given in {@link Node#level}
+     */
+    public int getFloor(int index) {
+        return floor[index];
+    }
+
+    /**
+     * Euclidean distance between node positions, ignoring floors.
+     *
+     * @return distance between nodes
+     */
+    public double distance(int from, int to) {
+        double dx = x[to] - x[from];
+        double dy = y[to] - y[from];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Lower bound for the path cost between two nodes. Uses the euclidean
+     * distance scaled to the cheapest link weight per length and adds the
+     * cheapest floor change cost when the nodes are on different floors.
+     *
+     * @param from
+     *            index of node
+     * @param to
+     *            index of target node
+     * @return admissible estimate of remaining cost
+     */
+    public double estimate(int from, int to) {
+        double estimate = heuristicScale * distance(from, to);
+        if (floor[from] != floor[to]) {
+            estimate += floorChangeCost;
+        }
+        return estimate;
+    }
+
+    /**
+     * Get a cleared search state for this graph from the pool. Creates a new
+     * state if all pooled ones are in use.
+     *
+     * @return search state ready for a new search
+     */
+    public SearchState acquireState() {
+        SearchState state = statePool.poll();
+        if (state == null) {
+            state = new SearchState(size());
+        }
+        state.reset();
+        return state;
+    }
+
+    /**
+     * Return search state to the pool once the results have been read.
+     *
+     * @param state
+     *            state acquired from this graph
+     */
+    public void releaseState(SearchState state) {
+        if (state.capacity() == size()) {
+            statePool.offer(state);
+        }
+    }
+
+    /**
+     * Collect path by following predecessors from target back to the start of
+     * the search.
+     *
+     * @param state
+     *            state of a finished search
+     * @param target
+     *            index of last node in path
+     * @return nodes from start to target
+     */
+    public LinkedList<Node> collectPath(SearchState state, int target) {
+        LinkedList<Node> path = new LinkedList<>();
+        for (int node = target; node != -1; node = state.getPrevious(node)) {
+            path.addFirst(nodes[node]);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,182 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of computed routes keyed by start and end
+ * node id.
+ * <p>
+ * Every lookup and store is given the version of the path graph it belongs
+ * to. A version change clears the cache, so routes computed for an older
+ * graph are never returned. For symmetric graphs the reverse route is served
+ * from the same entry.
+ */
+public class RouteCache {
+
+    public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+    private int maximumSize;
+    private long version = -1;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private final LinkedHashMap<Long, Node[]> routes = new LinkedHashMap<Long, Node[]>(
+            16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Node[]> eldest) {
+            if (size() > maximumSize) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    public RouteCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param maximumSize
+     *            maximum amount of routes to keep
+     */
+    public RouteCache(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Get cached route.
+     *
+     * @param fromNode
+     *            start node id
+     * @param toNode
+     *            end node id
+     * @param graphVersion
+     *            current version of the path graph
+     * @param symmetric
+     *            true if every link has a reverse link of the same weight
+     * @return route from start to end or null if not cached
+     */
+    public synchronized LinkedList<Node> get(int fromNode, int toNode,
+            long graphVersion, boolean symmetric) {
+        checkVersion(graphVersion);
+        Node[] route = routes.get(key(fromNode, toNode));
+        boolean reversed = false;
+        if (route == null && symmetric) {
+            route = routes.get(key(toNode, fromNode));
+            reversed = true;
+        }
+        if (route == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        LinkedList<Node> path = new LinkedList<>(Arrays.asList(route));
+        if (reversed) {
+            Collections.reverse(path);
+        }
+        return path;
+    }
+
+    /**
+     * Store computed route. Routes computed for an older graph version than
+     * the current one are ignored.
+     *
+     * @param fromNode
+     *            start node id
+     * @param toNode
+     *            end node id
+     * @param graphVersion
+     *            version of the path graph the route was computed on
+     * @param path
+     *            route from start to end
+     */
+    public synchronized void put(int fromNode, int toNode, long graphVersion,
+            LinkedList<Node> path) {
+        checkVersion(graphVersion);
+        if (graphVersion != version || maximumSize <= 0) {
+            return;
+        }
+        routes.put(key(fromNode, toNode), path.toArray(new Node[path.size()]));
+    }
+
+    private void checkVersion(long graphVersion) {
+        if (graphVersion > version) {
+            routes.clear();
+            version = graphVersion;
+        }
+    }
+
+    private static long key(int fromNode, int toNode) {
+        return ((long) fromNode << 32) | (toNode & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Set the maximum amount of cached routes. Evicts least recently used
+     * routes if there are more than the new maximum.
+     *
+     * @param maximumSize
+     *            maximum amount of routes to keep, 0 disables caching
+     */
+    public synchronized void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+        Iterator<Long> keys = routes.keySet().iterator();
+        while (routes.size() > Math.max(0, maximumSize) && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return amount of routes currently cached
+     */
+    public synchronized int size() {
+        return routes.size();
+    }
+
+    public synchronized void clear() {
+        routes.clear();
+    }
+
+    /**
+     * @return amount of lookups answered from the cache
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return amount of lookups that were not found in the cache
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return amount of routes removed to keep within the maximum size
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Reset hit, miss and eviction counters.
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+}
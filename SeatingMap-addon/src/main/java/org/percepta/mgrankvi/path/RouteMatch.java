@@ -0,0 +1,41 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.LinkedList;
+
+/**
+ * One result of a nearest target query: the matched target, its walking
+ * distance from the start and the path to it.
+ *
+ * @param <T>
+ *            type of the matched target
+ */
+public class RouteMatch<T> {
+
+    private final T target;
+    private final double distance;
+    private final LinkedList<Node> path;
+
+    public RouteMatch(T target, double distance, LinkedList<Node> path) {
+        this.target = target;
+        this.distance = distance;
+        this.path = path;
+    }
+
+    public T getTarget() {
+        return target;
+    }
+
+    /**
+     * @return sum of link weights from the start to the target
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return nodes from the start to the target
+     */
+    public LinkedList<Node> getPath() {
+        return path;
+    }
+}
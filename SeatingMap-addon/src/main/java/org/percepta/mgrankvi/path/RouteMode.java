@@ -0,0 +1,30 @@
+package org.percepta.mgrankvi.path;
+
+/**
+ * Search algorithm used for routing between path nodes.
+ */
+public enum RouteMode {
+    /**
+     * Plain Dijkstra search from the start node.
+     */
+    DIJKSTRA,
+    /**
+     * A* search guided by node positions and floors.
+     */
+    A_STAR,
+    /**
+     * Dijkstra search from both the start and the end node.
+     */
+    BIDIRECTIONAL,
+    /**
+     * Search through the stair and elevator portal index of
+     * {@link FloorHierarchy}.
+     */
+    HIERARCHICAL,
+    /**
+     * Bidirectional upward search in a {@link ContractionHierarchy}. Needs
+     * preprocessing after every path change, so best suited for large graphs
+     * that rarely change.
+     */
+    CONTRACTION_HIERARCHY
+}
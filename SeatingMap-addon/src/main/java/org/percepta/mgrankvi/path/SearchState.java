@@ -0,0 +1,70 @@
+package org.percepta.mgrankvi.path;
+
+import java.util.Arrays;
+
+/**
+ * Per query scratch buffers for searches over a {@link PathGraph}.
+ * <p>
+ * Distances and predecessors are only valid for nodes stamped with the
+ * current generation, so starting a new search is O(1) instead of an O(n)
+ * reset. A state is used by one search at a time; get one with
+ * {@link PathGraph#acquireState()} and hand it back with
+ * {@link PathGraph#releaseState(SearchState)}.
+ */
+public class SearchState {
+
+    private final double[] distance;
+    private final int[] previous;
+    private final int[] stamp;
+    private int generation;
+
+    final IndexedHeap queue;
+
+    SearchState(int size) {
+        distance = new double[size];
+        previous = new int[size];
+        stamp = new int[size];
+        queue = new IndexedHeap(size);
+    }
+
+    /**
+     * Start a new search. All nodes become unreached.
+     */
+    void reset() {
+        queue.clear();
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * @return distance to node or positive infinity if not reached
+     */
+    public double getDistance(int node) {
+        return stamp[node] == generation ? distance[node]
+                : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @return predecessor of node on the shortest path or -1 for none
+     */
+    public int getPrevious(int node) {
+        return stamp[node] == generation ? previous[node] : -1;
+    }
+
+    public boolean isReached(int node) {
+        return stamp[node] == generation;
+    }
+
+    void update(int node, double nodeDistance, int predecessor) {
+        stamp[node] = generation;
+        distance[node] = nodeDistance;
+        previous[node] = predecessor;
+    }
+
+    int capacity() {
+        return stamp.length;
+    }
+}
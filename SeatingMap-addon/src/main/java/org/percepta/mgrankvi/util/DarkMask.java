@@ -0,0 +1,200 @@
+package org.percepta.mgrankvi.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Packed bit mask of the dark pixels of an image, for checking if a line
+ * between two points is drawn in the image.
+ * <p>
+ * Pixels are kept row by row and column by column as bits in 64 bit words,
+ * with the amount of dark pixels before each word. A horizontal or vertical
+ * run of pixels is then checked with two lookups and bit counts whatever its
+ * length, and single pixels with one bit test. The mask takes about two bits
+ * per pixel.
+ */
+final class DarkMask {
+
+    private final int width;
+    private final int height;
+
+    // words per row and per column
+    private final int rowWords;
+    private final int columnWords;
+
+    // dark bits row by row and column by column
+    private final long[] rows;
+    private final long[] columns;
+
+    // dark pixels before each word, rowWords + 1 per row
+    private final int[] rowCounts;
+    private final int[] columnCounts;
+
+    private DarkMask(int width, int height) {
+        this.width = width;
+        this.height = height;
+        rowWords = (width + 63) >>> 6;
+        columnWords = (height + 63) >>> 6;
+        rows = new long[height * rowWords];
+        columns = new long[width * columnWords];
+        rowCounts = new int[height * (rowWords + 1)];
+        columnCounts = new int[width * (columnWords + 1)];
+    }
+
+    /**
+     * Create mask of the pixels of image that have at most the given
+     * luminance. Common RGB image types are read straight from the data
+     * buffer, others through {@link BufferedImage#getRGB}.
+     *
+     * @param image
+     *            image to mask
+     * @param luminance
+     *            luminance threshold for dark pixels
+     * @return mask of dark pixels
+     */
+    static DarkMask of(BufferedImage image, double luminance) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        DarkMask mask = new DarkMask(width, height);
+
+        Raster raster = image.getRaster();
+        int type = image.getType();
+        // Sub images share the buffer of the parent with an offset
+        boolean direct = raster.getParent() == null;
+        if (direct && (type == BufferedImage.TYPE_INT_RGB
+                || type == BufferedImage.TYPE_INT_ARGB)) {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int offset = raster.getDataBuffer().getOffset();
+            int stride = ((SinglePixelPackedSampleModel) raster
+                    .getSampleModel()).getScanlineStride();
+            for (int y = 0; y < height; y++) {
+                int index = offset + y * stride;
+                for (int x = 0; x < width; x++) {
+                    int rgb = data[index + x];
+                    if (ImageToLines.getLuminance((rgb >> 16) & 0xFF,
+                            (rgb >> 8) & 0xFF, rgb & 0xFF) <= luminance) {
+                        mask.set(x, y);
+                    }
+                }
+            }
+        } else if (direct && (type == BufferedImage.TYPE_3BYTE_BGR
+                || type == BufferedImage.TYPE_4BYTE_ABGR)) {
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            ComponentSampleModel model = (ComponentSampleModel) raster
+                    .getSampleModel();
+            int offset = raster.getDataBuffer().getOffset();
+            int stride = model.getScanlineStride();
+            int pixelStride = model.getPixelStride();
+            int[] bands = model.getBandOffsets();
+            for (int y = 0; y < height; y++) {
+                int index = offset + y * stride;
+                for (int x = 0; x < width; x++, index += pixelStride) {
+                    if (ImageToLines.getLuminance(data[index + bands[0]] & 0xFF,
+                            data[index + bands[1]] & 0xFF,
+                            data[index + bands[2]] & 0xFF) <= luminance) {
+                        mask.set(x, y);
+                    }
+                }
+            }
+        } else {
+            int[] rgb = new int[width];
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, rgb, 0, width);
+                for (int x = 0; x < width; x++) {
+                    if (ImageToLines.getLuminance(rgb[x]) <= luminance) {
+                        mask.set(x, y);
+                    }
+                }
+            }
+        }
+        mask.count();
+        return mask;
+    }
+
+    private void set(int x, int y) {
+        rows[y * rowWords + (x >>> 6)] |= 1L << x;
+        columns[x * columnWords + (y >>> 6)] |= 1L << y;
+    }
+
+    private void count() {
+        for (int y = 0; y < height; y++) {
+            accumulate(rows, y * rowWords, rowWords, rowCounts,
+                    y * (rowWords + 1));
+        }
+        for (int x = 0; x < width; x++) {
+            accumulate(columns, x * columnWords, columnWords, columnCounts,
+                    x * (columnWords + 1));
+        }
+    }
+
+    private static void accumulate(long[] bits, int from, int words,
+            int[] counts, int to) {
+        int sum = 0;
+        for (int i = 0; i < words; i++) {
+            counts[to + i] = sum;
+            sum += Long.bitCount(bits[from + i]);
+        }
+        counts[to + words] = sum;
+    }
+
+    /**
+     * Dark pixels before position in a row or column.
+     */
+    private static int rank(long[] bits, int from, int[] counts, int to,
+            int position) {
+        int word = position >>> 6;
+        int rank = counts[to + word];
+        if ((position & 63) != 0) {
+            rank += Long.bitCount(bits[from + word] & ((1L << position) - 1));
+        }
+        return rank;
+    }
+
+    /**
+     * @return true if pixel (x,y) is inside the image and dark
+     */
+    boolean isDark(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return false;
+        }
+        return (rows[y * rowWords + (x >>> 6)] & 1L << x) != 0;
+    }
+
+    /**
+     * @return true if all pixels of row y from x0 (inclusive) to x1
+     *         (exclusive) are dark
+     */
+    boolean isDarkRow(int y, int x0, int x1) {
+        if (x0 >= x1) {
+            return true;
+        }
+        if (y < 0 || y >= height || x0 < 0 || x1 > width) {
+            return false;
+        }
+        int from = y * rowWords;
+        int to = y * (rowWords + 1);
+        return rank(rows, from, rowCounts, to, x1)
+                - rank(rows, from, rowCounts, to, x0) == x1 - x0;
+    }
+
+    /**
+     * @return true if all pixels of column x from y0 (inclusive) to y1
+     *         (exclusive) are dark
+     */
+    boolean isDarkColumn(int x, int y0, int y1) {
+        if (y0 >= y1) {
+            return true;
+        }
+        if (x < 0 || x >= width || y0 < 0 || y1 > height) {
+            return false;
+        }
+        int from = x * columnWords;
+        int to = x * (columnWords + 1);
+        return rank(columns, from, columnCounts, to, y1)
+                - rank(columns, from, columnCounts, to, y0) == y1 - y0;
+    }
+}
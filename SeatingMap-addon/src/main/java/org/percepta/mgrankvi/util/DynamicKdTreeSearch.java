@@ -0,0 +1,210 @@
+package org.percepta.mgrankvi.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.percepta.mgrankvi.client.geometry.Point;
+import org.percepta.mgrankvi.path.Node;
+
+/**
+ * Nearest search that supports adding and removing nodes, built from static
+ * {@link KdTreeSearch} trees of doubling size.
+ * <p>
+ * New nodes go to a small buffer that is scanned linearly. A full buffer is
+ * merged with the trees of the lowest levels into one new tree, like carrying
+ * in binary addition, so each node is rebuilt O(log n) times over all
+ * inserts. Removed nodes are skipped by queries and dropped when their tree is
+ * next rebuilt, or by a full rebuild once they outnumber the live nodes.
+ * <p>
+ * Queries can run from several threads as long as no node is added or removed
+ * at the same time.
+ */
+public class DynamicKdTreeSearch implements MutableNearestSearch {
+
+    // Nodes kept unindexed before they are built into a tree
+    private static final int BUFFER_SIZE = 32;
+
+    private final List<Node> buffer = new ArrayList<>(BUFFER_SIZE);
+    // Tree of level i holds about BUFFER_SIZE << i nodes, null if empty
+    private KdTreeSearch[] trees = new KdTreeSearch[0];
+
+    private final Set<Node> nodes = identitySet();
+    // Removed nodes that are still in a tree
+    private final Set<Node> removed = identitySet();
+
+    public DynamicKdTreeSearch() {
+    }
+
+    private static Set<Node> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    @Override
+    public void setNodes(List<Node> nodeList) {
+        buffer.clear();
+        nodes.clear();
+        removed.clear();
+        for (Node node : nodeList) {
+            if (nodes.add(node)) {
+                buffer.add(node);
+            }
+        }
+        trees = new KdTreeSearch[0];
+        if (buffer.size() >= BUFFER_SIZE) {
+            List<Node> all = new ArrayList<>(buffer);
+            buffer.clear();
+            place(all, level(all.size()));
+        }
+    }
+
+    @Override
+    public void add(Node node) {
+        if (!nodes.add(node)) {
+            return;
+        }
+        if (removed.remove(node)) {
+            // Still in its tree
+            return;
+        }
+        buffer.add(node);
+        if (buffer.size() == BUFFER_SIZE) {
+            List<Node> carry = new ArrayList<>(buffer);
+            buffer.clear();
+            int level = 0;
+            while (level < trees.length && trees[level] != null) {
+                KdTreeSearch tree = trees[level];
+                for (int i = 0; i < tree.nodeCount(); i++) {
+                    Node treeNode = tree.getNode(i);
+                    if (!removed.remove(treeNode)) {
+                        carry.add(treeNode);
+                    }
+                }
+                trees[level++] = null;
+            }
+            place(carry, level);
+        }
+    }
+
+    @Override
+    public boolean remove(Node node) {
+        if (!nodes.remove(node)) {
+            return false;
+        }
+        for (int i = 0; i < buffer.size(); i++) {
+            if (buffer.get(i) == node) {
+                buffer.remove(i);
+                return true;
+            }
+        }
+        removed.add(node);
+        if (removed.size() > nodes.size()) {
+            setNodes(new ArrayList<>(nodes));
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return nodes.size();
+    }
+
+    private static int level(int count) {
+        int level = 0;
+        while ((BUFFER_SIZE << level) < count) {
+            level++;
+        }
+        return level;
+    }
+
+    private void place(List<Node> treeNodes, int level) {
+        if (level >= trees.length) {
+            KdTreeSearch[] grown = new KdTreeSearch[level + 1];
+            System.arraycopy(trees, 0, grown, 0, trees.length);
+            trees = grown;
+        }
+        KdTreeSearch tree = new KdTreeSearch();
+        tree.setNodes(treeNodes);
+        trees[level] = tree;
+    }
+
+    @Override
+    public Node getNearest(Point centerPoint) {
+        NearestHeap heap = NearestHeap.get(1);
+        collect(centerPoint.getX(), centerPoint.getY(),
+                Double.POSITIVE_INFINITY, heap);
+        int[] values = heap.drainValuesAscending();
+        return values.length == 0 ? null : lookup(values[0]);
+    }
+
+    @Override
+    public List<Node> getKNearest(Point point, int k) {
+        if (k <= 0) {
+            return new ArrayList<>(0);
+        }
+        NearestHeap heap = NearestHeap.get(k);
+        collect(point.getX(), point.getY(), Double.POSITIVE_INFINITY, heap);
+        return toNodes(heap.drainValuesAscending());
+    }
+
+    @Override
+    public List<Node> getWithinRadius(Point point, double radius) {
+        NearestHeap heap = NearestHeap.get(Integer.MAX_VALUE);
+        collect(point.getX(), point.getY(), radius * radius, heap);
+        return toNodes(heap.drainValuesAscending());
+    }
+
+    /**
+     * Offer buffer and tree nodes to the heap. Buffer nodes are offered by
+     * buffer index and tree nodes after them by position over all trees. The
+     * largest tree goes first so that the heap bound prunes the smaller ones.
+     */
+    private void collect(double x, double y, double maxSquared,
+            NearestHeap heap) {
+        for (int i = 0; i < buffer.size(); i++) {
+            Point position = buffer.get(i).getPosition();
+            double dx = position.getX() - x;
+            double dy = position.getY() - y;
+            double distance = dx * dx + dy * dy;
+            if (distance <= maxSquared) {
+                heap.offer(distance, i);
+            }
+        }
+        Set<Node> excluded = removed.isEmpty() ? null : removed;
+        int base = BUFFER_SIZE;
+        for (int level = trees.length - 1; level >= 0; level--) {
+            KdTreeSearch tree = trees[level];
+            if (tree != null) {
+                tree.collect(x, y, maxSquared, heap, excluded, base);
+                base += tree.nodeCount();
+            }
+        }
+    }
+
+    private Node lookup(int value) {
+        if (value < BUFFER_SIZE) {
+            return buffer.get(value);
+        }
+        value -= BUFFER_SIZE;
+        for (int level = trees.length - 1; level >= 0; level--) {
+            KdTreeSearch tree = trees[level];
+            if (tree != null) {
+                if (value < tree.nodeCount()) {
+                    return tree.getNode(value);
+                }
+                value -= tree.nodeCount();
+            }
+        }
+        throw new IllegalStateException("No node for heap value");
+    }
+
+    private List<Node> toNodes(int[] values) {
+        List<Node> result = new ArrayList<>(values.length);
+        for (int value : values) {
+            result.add(lookup(value));
+        }
+        return result;
+    }
+}
@@ -1,8 +1,11 @@
 package org.percepta.mgrankvi.util;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,6 +24,19 @@ import java.util.logging.Logger;
  * <p/>
  * where "a" is the mininmum ratio between the two eigenvalues
  * for a point to be considered as a corner.
+ * <p/>
+ * The image and all intermediate values are kept in flat row-major float
+ * planes, pixel (x, y) at index y * width + x. The Gaussian window is applied
+ * as a horizontal and a vertical 1D pass, which gives the same sums as the
+ * full 2D window at a fraction of the work.
+ * <p/>
+ * The image is handled in bands of rows. Each band computes the gradient,
+ * the Gaussian sums and the Harris measure for its rows plus a halo of the
+ * rows its window reaches into, then picks its local maxima. Every pixel is
+ * computed with the same operations whichever band it is in, so bands can
+ * run in parallel and their corners joined in band order give exactly the
+ * result of a single band. A band allocates the three planes Lx2, Ly2 and
+ * Lxy for its rows; the Harris measure is written over Lx2.
  *
  * @author Xavier Philippeau
  */
@@ -28,6 +44,12 @@ public class HarrisFast {
 
     Logger log = Logger.getLogger("HarrisFast");
 
+    // neighbour offsets for the local maxima test
+    private static final int[] DX = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
+    private static final int[] DY = new int[]{-1, -1, -1, 0, 1, 1, 1, 0};
+    // smallest band height for parallel detection
+    private static final int MIN_BAND_ROWS = 64;
+
     // corner class
     public class Corner {
         public int x, y; // corner position
@@ -40,85 +62,112 @@ public class HarrisFast {
         }
     }
 
+    /**
+     * Gray levels of an image row by row, for detection without keeping the
+     * whole image in memory.
+     */
+    public interface RowSource {
+        /**
+         * Fill row with the gray levels 0-255 of image row y. Rows are read
+         * once each from top to bottom.
+         *
+         * @param y   image row
+         * @param row array of image width to fill
+         */
+        void read(int y, float[] row) throws IOException;
+    }
+
     // corners list
     public List<Corner> corners = new ArrayList<Corner>();
 
-    // image
-    private int[][] image;
+    // image, gray levels 0-255 row by row
+    private float[] image;
     int width, height;
 
-    // precomputed values of the derivatives
-    private float[][] Lx2, Ly2, Lxy;
-
     /**
      * Constructor
+     *
+     * @param image  gray levels 0-255 as image[x][y]
+     * @param width  image width
+     * @param height image height
      */
     public HarrisFast(int[][] image, int width, int height) {
+        this(toPlane(image, width, height), width, height);
+    }
+
+    /**
+     * Constructor for an image that is already a flat plane.
+     *
+     * @param image  gray levels 0-255, pixel (x, y) at index y * width + x
+     * @param width  image width
+     * @param height image height
+     */
+    public HarrisFast(float[] image, int width, int height) {
+        if (image.length < width * height) {
+            throw new IllegalArgumentException(String.format(
+                    "Image of %d pixels is too small for %dx%d", image.length,
+                    width, height));
+        }
         this.image = image;
         this.width = width;
         this.height = height;
     }
 
     /**
-     * Gaussian function
+     * Constructor for detection from a {@link RowSource}, see
+     * {@link #findCorners(RowSource, double, double, int)}.
+     *
+     * @param width  image width
+     * @param height image height
      */
-    private double gaussian(double x, double y, double sigma) {
-        double sigma2 = sigma * sigma;
-        double t = (x * x + y * y) / (2 * sigma2);
-        double u = 1.0 / (2 * Math.PI * sigma2);
-        double e = u * Math.exp(-t);
-        return e;
+    public HarrisFast(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    private static float[] toPlane(int[][] image, int width, int height) {
+        float[] plane = new float[width * height];
+        for (int x = 0; x < width; x++) {
+            int[] column = image[x];
+            for (int y = 0; y < height; y++) {
+                plane[y * width + x] = column[y];
+            }
+        }
+        return plane;
     }
 
     /**
-     * Sobel gradient 3x3
+     * 1D Gaussian weights for offsets -radius..radius. The product of two of
+     * these is the 2D Gaussian weight.
      */
-    private float[] sobel(int x, int y) {
-        int v00 = 0, v01 = 0, v02 = 0, v10 = 0, v12 = 0, v20 = 0, v21 = 0, v22 = 0;
-
-        int x0 = x - 1, x1 = x, x2 = x + 1;
-        int y0 = y - 1, y1 = y, y2 = y + 1;
-        if (x0 < 0) x0 = 0;
-        if (y0 < 0) y0 = 0;
-        if (x2 >= width) x2 = width - 1;
-        if (y2 >= height) y2 = height - 1;
-
-        v00 = image[x0][y0];
-        v10 = image[x1][y0];
-        v20 = image[x2][y0];
-        v01 = image[x0][y1];
-        v21 = image[x2][y1];
-        v02 = image[x0][y2];
-        v12 = image[x1][y2];
-        v22 = image[x2][y2];
-
-        float sx = ((v20 + 2 * v21 + v22) - (v00 + 2 * v01 + v02)) / (4 * 255f);
-        float sy = ((v02 + 2 * v12 + v22) - (v00 + 2 * v10 + v20)) / (4 * 255f);
-        return new float[]{sx, sy};
+    private static float[] gaussianKernel(int radius, double sigma) {
+        float[] kernel = new float[2 * radius + 1];
+        double u = 1.0 / Math.sqrt(2 * Math.PI * sigma * sigma);
+        for (int i = -radius; i <= radius; i++) {
+            kernel[i + radius] = (float) (u * Math.exp(-(i * i) / (2 * sigma * sigma)));
+        }
+        return kernel;
     }
 
-
     /**
-     * Compute the 3 arrays Ix, Iy and Ixy
+     * Find local maxima of the Harris measure in rows from (inclusive) to
+     * (exclusive).
+     *
+     * @return corners of the band row by row
      */
-    private void computeDerivatives(double sigma) {
-        this.Lx2 = new float[width][height];
-        this.Ly2 = new float[width][height];
-        this.Lxy = new float[width][height];
-
-        // gradient values: Gx,Gy
-        float[][][] grad = new float[width][height][];
-        for (int y = 0; y < height; y++)
-            for (int x = 0; x < width; x++)
-                grad[x][y] = sobel(x, y);
-
-        // precompute the coefficients of the gaussian filter
-        int radius = (int) (2 * sigma);
-        int window = 1 + 2 * radius;
-        float[][] gaussian = new float[window][window];
-        for (int j = -radius; j <= radius; j++)
-            for (int i = -radius; i <= radius; i++)
-                gaussian[i + radius][j + radius] = (float) gaussian(i, j, sigma);
+    private List<Corner> detectBand(int from, int to, float[] kernel, float k) {
+        int radius = kernel.length / 2;
+        // Rows whose measure is needed and the rows their windows reach
+        int first = Math.max(from - 1, 0);
+        int last = Math.min(to + 1, height);
+        int top = Math.max(first - radius, 0);
+        int bottom = Math.min(last + radius, height);
+        int rows = bottom - top;
+
+        float[] Lx2 = new float[rows * width];
+        float[] Ly2 = new float[rows * width];
+        float[] Lxy = new float[rows * width];
+        computeGradients(top, bottom, Lx2, Ly2, Lxy);
 
         // Convolve gradient with gaussian filter:
         //
@@ -126,132 +175,492 @@ public class HarrisFast {
         // Iy2 = (F) * (Gy^2)
         // Ixy = (F) * (Gx.Gy)
         //
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
+        float[] row = new float[width];
+        float[][] history = new float[radius + 1][width];
+        for (float[] plane : new float[][]{Lx2, Ly2, Lxy}) {
+            convolveRows(plane, rows, kernel, row);
+            convolveColumns(plane, top, bottom, kernel, row, history);
+        }
 
-                for (int dy = -radius; dy <= radius; dy++) {
-                    for (int dx = -radius; dx <= radius; dx++) {
-                        int xk = x + dx;
-                        int yk = y + dy;
-                        if (xk < 0 || xk >= width) continue;
-                        if (yk < 0 || yk >= height) continue;
+        // Harris measure map, valid for rows first until last
+        float[] harrismap = Lx2;
+        computeHarrisMap(Lx2, Ly2, Lxy, (first - top) * width, (last - top) * width, k);
 
-                        // gaussian weight
-                        double gw = gaussian[dx + radius][dy + radius];
+        List<Corner> found = new ArrayList<Corner>();
+        // for each pixel in the harrismap
+        for (int y = Math.max(from, 1); y < Math.min(to, height - 1); y++) {
+            int offset = (y - top) * width;
+            for (int x = 1; x < width - 1; x++) {
+                // thresholding : harris measure > epsilon
+                float h = harrismap[offset + x];
+                if (h <= 1E-3) continue;
+                // keep only a local maxima
+                if (!isSpatialMaxima(harrismap, offset + x)) continue;
+                // add the corner to the list
+                found.add(new Corner(x, y, h));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Sobel gradient 3x3 with clamped borders for image rows top until
+     * bottom, stored as the products Gx^2, Gy^2 and Gx.Gy
+     */
+    private void computeGradients(int top, int bottom, float[] Lx2, float[] Ly2, float[] Lxy) {
+        for (int y = top; y < bottom; y++) {
+            int row0 = Math.max(y - 1, 0) * width;
+            int row1 = y * width;
+            int row2 = Math.min(y + 1, height - 1) * width;
+            computeGradientRow(image, row0, image, row1, image, row2, Lx2, Ly2, Lxy, (y - top) * width);
+        }
+    }
+
+    /**
+     * Sobel gradient 3x3 with clamped borders for the row between the rows
+     * above and below at the given offsets, stored from offset out
+     */
+    private void computeGradientRow(float[] above, int row0, float[] current, int row1, float[] below, int row2,
+                                    float[] Lx2, float[] Ly2, float[] Lxy, int out) {
+        for (int x = 0; x < width; x++) {
+            int x0 = Math.max(x - 1, 0);
+            int x2 = Math.min(x + 1, width - 1);
+
+            float v00 = above[row0 + x0];
+            float v10 = above[row0 + x];
+            float v20 = above[row0 + x2];
+            float v01 = current[row1 + x0];
+            float v21 = current[row1 + x2];
+            float v02 = below[row2 + x0];
+            float v12 = below[row2 + x];
+            float v22 = below[row2 + x2];
+
+            float sx = ((v20 + 2 * v21 + v22) - (v00 + 2 * v01 + v02)) / (4 * 255f);
+            float sy = ((v02 + 2 * v12 + v22) - (v00 + 2 * v10 + v20)) / (4 * 255f);
+            Lx2[out + x] = sx * sx;
+            Ly2[out + x] = sy * sy;
+            Lxy[out + x] = sx * sy;
+        }
+    }
+
+    /**
+     * Horizontal pass in place. Pixels outside the image count as zero.
+     */
+    private void convolveRows(float[] plane, int rows, float[] kernel, float[] row) {
+        int radius = kernel.length / 2;
+        for (int y = 0; y < rows; y++) {
+            int offset = y * width;
+            System.arraycopy(plane, offset, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int from = Math.max(x - radius, 0);
+                int to = Math.min(x + radius, width - 1);
+                float sum = 0;
+                for (int xk = from; xk <= to; xk++) {
+                    sum += kernel[xk - x + radius] * row[xk];
+                }
+                plane[offset + x] = sum;
+            }
+        }
+    }
 
-                        // convolution
-                        this.Lx2[x][y] += gw * grad[xk][yk][0] * grad[xk][yk][0];
-                        this.Ly2[x][y] += gw * grad[xk][yk][1] * grad[xk][yk][1];
-                        this.Lxy[x][y] += gw * grad[xk][yk][0] * grad[xk][yk][1];
+    /**
+     * Vertical pass in place over the plane of image rows top until bottom.
+     * Rows above the current one have already been overwritten, so their
+     * input values are kept in a ring of radius rows. Pixels outside the
+     * image count as zero. Rows whose window reaches past the band are not
+     * complete and must not be used.
+     */
+    private void convolveColumns(float[] plane, int top, int bottom, float[] kernel, float[] row, float[][] history) {
+        int radius = kernel.length / 2;
+        for (int y = top; y < bottom; y++) {
+            Arrays.fill(row, 0);
+            for (int dy = -radius; dy <= radius; dy++) {
+                int yk = y + dy;
+                if (yk < 0 || yk >= height) continue;
+                if (yk < top || yk >= bottom) continue;
+                float weight = kernel[dy + radius];
+                if (dy < 0) {
+                    float[] source = history[yk % (radius + 1)];
+                    for (int x = 0; x < width; x++) {
+                        row[x] += weight * source[x];
+                    }
+                } else {
+                    int offset = (yk - top) * width;
+                    for (int x = 0; x < width; x++) {
+                        row[x] += weight * plane[offset + x];
                     }
                 }
             }
+            System.arraycopy(plane, (y - top) * width, history[y % (radius + 1)], 0, width);
+            System.arraycopy(row, 0, plane, (y - top) * width, width);
         }
     }
 
     /**
-     * compute harris measure for a pixel
+     * compute the Harris measure for plane indexes from until to, written
+     * over Lx2
      */
-    private float harrisMeasure(int x, int y, float k) {
-        // matrix elements (normalized)
-        float m00 = this.Lx2[x][y];
-        float m01 = this.Lxy[x][y];
-        float m10 = this.Lxy[x][y];
-        float m11 = this.Ly2[x][y];
-
-        // Harris corner measure = det(M)-k.trace(M)^2
-        return m00 * m11 - m01 * m10 - k * (m00 + m11) * (m00 + m11);
+    private static void computeHarrisMap(float[] Lx2, float[] Ly2, float[] Lxy, int from, int to, float k) {
+        double logScale = 255 / Math.log(1 + 255);
+        for (int i = from; i < to; i++) {
+            // matrix elements (normalized)
+            float m00 = Lx2[i];
+            float m01 = Lxy[i];
+            float m11 = Ly2[i];
+
+            // Harris corner measure = det(M)-k.trace(M)^2
+            double h = m00 * m11 - m01 * m01 - k * (m00 + m11) * (m00 + m11);
+            // log scale
+            Lx2[i] = h <= 0 ? 0 : (float) (logScale * Math.log(1 + h));
+        }
     }
 
     /**
-     * return true if the measure at pixel (x,y) is a local spatial Maxima
+     * return true if the measure at plane index is a local spatial Maxima
      */
-    private boolean isSpatialMaxima(float[][] hmap, int x, int y) {
-        int n = 8;
-        int[] dx = new int[]{-1, 0, 1, 1, 1, 0, -1, -1};
-        int[] dy = new int[]{-1, -1, -1, 0, 1, 1, 1, 0};
-        double w = hmap[x][y];
-        for (int i = 0; i < n; i++) {
-            double wk = hmap[x + dx[i]][y + dy[i]];
+    private boolean isSpatialMaxima(float[] hmap, int index) {
+        float w = hmap[index];
+        for (int i = 0; i < DX.length; i++) {
+            float wk = hmap[index + DY[i] * width + DX[i]];
             if (wk >= w) return false;
         }
         return true;
     }
 
     /**
-     * compute the Harris measure for each pixel of the image
+     * Find the corners of the image into {@link #corners} without creating
+     * the marked output image.
+     *
+     * @param sigma       gaussian filter parameter
+     * @param k           parameter of the harris measure formula
+     * @param minDistance minimum distance between corners
+     * @return the found corners
      */
-    private float[][] computeHarrisMap(double k) {
-
-        // Harris measure map
-        float[][] harrismap = new float[width][height];
+    public List<Corner> findCorners(double sigma, double k, int minDistance) {
+        corners.addAll(detectBand(0, height, gaussianKernel((int) (2 * sigma), sigma), (float) k));
+        return suppress(minDistance);
+    }
 
-        // for each pixel in the image
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                // compute the harris measure
-                double h = harrisMeasure(x, y, (float) k);
-                if (h <= 0) continue;
-                // log scale
-                h = 255 * Math.log(1 + h) / Math.log(1 + 255);
-                // store
-                harrismap[x][y] = (float) h;
-            }
+    /**
+     * Find the corners of the image into {@link #corners} with row bands
+     * handled in parallel on the given pool. The result is the same as from
+     * {@link #findCorners(double, double, int)}.
+     *
+     * @param sigma       gaussian filter parameter
+     * @param k           parameter of the harris measure formula
+     * @param minDistance minimum distance between corners
+     * @param pool        pool to run the bands on
+     * @return the found corners
+     */
+    public List<Corner> findCorners(double sigma, double k, int minDistance, ForkJoinPool pool) {
+        float[] kernel = gaussianKernel((int) (2 * sigma), sigma);
+        // A few bands per thread to even out the load, but large enough that
+        // the halo rows stay a small part of the work
+        int bands = Math.max(1, Math.min(pool.getParallelism() * 4, height / MIN_BAND_ROWS));
+        List<ForkJoinTask<List<Corner>>> tasks = new ArrayList<ForkJoinTask<List<Corner>>>(bands);
+        for (int band = 0; band < bands; band++) {
+            int from = (int) ((long) height * band / bands);
+            int to = (int) ((long) height * (band + 1) / bands);
+            tasks.add(pool.submit(() -> detectBand(from, to, kernel, (float) k)));
         }
-
-        return harrismap;
+        for (ForkJoinTask<List<Corner>> task : tasks) {
+            corners.addAll(task.join());
+        }
+        return suppress(minDistance);
     }
 
     /**
-     * Perfom the Harris Corner Detection
+     * Find the corners of an image read row by row, see {@link RowScan}. The
+     * result is the same as from {@link #findCorners(double, double, int)}
+     * for the same image.
      *
+     * @param source      gray levels of the image
      * @param sigma       gaussian filter parameter
      * @param k           parameter of the harris measure formula
      * @param minDistance minimum distance between corners
-     * @return the orginal image marked with cross sign at each corner
+     * @return the found corners
      */
-    public int[][] filter(double sigma, double k, int minDistance) {
+    public List<Corner> findCorners(RowSource source, double sigma, double k, int minDistance) throws IOException {
+        RowScan scan = new RowScan(sigma, k);
+        float[] row = new float[width];
+        for (int y = 0; y < height; y++) {
+            source.read(y, row);
+            scan.push(row);
+        }
+        return scan.finish(minDistance);
+    }
 
-        // precompute derivatives
-        computeDerivatives(sigma);
+    /**
+     * Corner detection over image rows given one at a time from top to
+     * bottom. Only the rows the gradient, the Gaussian window and the local
+     * maxima test reach are kept, 2 * radius + 1 rows for the window and 3
+     * rows for the other stages, so memory is proportional to the image
+     * width. Candidates are added to {@link #corners} as their rows complete:
+     * the candidates of row y once row y + radius + 2 has been pushed, radius
+     * being (int) (2 * sigma). They are suppressed in {@link #finish(int)}.
+     */
+    public class RowScan {
+        private final float[] kernel;
+        private final float k;
+        private final int radius;
+        private final int window;
+
+        // image rows y-1..y+1
+        private final float[][] gray = new float[3][width];
+        // gradient products convolved horizontally, rows v-radius..v+radius
+        private final float[][] Lx2;
+        private final float[][] Ly2;
+        private final float[][] Lxy;
+        // Harris measure, rows v-2..v
+        private final float[][] harrismap = new float[3][width];
+        private final float[] Sy2 = new float[width];
+        private final float[] Sxy = new float[width];
+        private final float[] row = new float[width];
+
+        // rows pushed, gradient rows produced and measure rows computed
+        private int read;
+        private int produced;
+        private int measured;
+
+        /**
+         * @param sigma gaussian filter parameter
+         * @param k     parameter of the harris measure formula
+         */
+        public RowScan(double sigma, double k) {
+            radius = (int) (2 * sigma);
+            kernel = gaussianKernel(radius, sigma);
+            this.k = (float) k;
+            window = 2 * radius + 1;
+            Lx2 = new float[window][width];
+            Ly2 = new float[window][width];
+            Lxy = new float[window][width];
+        }
 
-        // Harris measure map
-        float[][] harrismap = computeHarrisMap(k);
+        /**
+         * Add the next image row.
+         *
+         * @param grayRow gray levels 0-255 of the row, copied
+         */
+        public void push(float[] grayRow) {
+            if (read == height) {
+                throw new IllegalStateException(String.format(
+                        "All %d rows have been pushed", height));
+            }
+            System.arraycopy(grayRow, 0, gray[read % 3], 0, width);
+            read++;
+            // Measure rows as soon as their window is complete, so that a
+            // gradient row is only overwritten once no measure needs it
+            while (true) {
+                if (measured < height && (measured + radius < produced || produced == height)) {
+                    measure(measured++);
+                } else if (produced < height && (produced + 1 < read || read == height)) {
+                    produce(produced++);
+                } else {
+                    break;
+                }
+            }
+        }
 
-        // for each pixel in the harrismap
-        for (int y = 1; y < height - 1; y++) {
+        /**
+         * Gradient row, convolved horizontally.
+         */
+        private void produce(int y) {
+            int slot = y % window;
+            computeGradientRow(gray[Math.max(y - 1, 0) % 3], 0, gray[y % 3], 0,
+                    gray[Math.min(y + 1, height - 1) % 3], 0, Lx2[slot], Ly2[slot], Lxy[slot], 0);
+            convolveRows(Lx2[slot], 1, kernel, row);
+            convolveRows(Ly2[slot], 1, kernel, row);
+            convolveRows(Lxy[slot], 1, kernel, row);
+        }
+
+        /**
+         * Harris measure of row v and the corners of row v - 1, which has its
+         * neighbour rows now.
+         */
+        private void measure(int v) {
+            float[] measure = harrismap[v % 3];
+            sumColumns(Lx2, v, kernel, measure);
+            sumColumns(Ly2, v, kernel, Sy2);
+            sumColumns(Lxy, v, kernel, Sxy);
+            computeHarrisMap(measure, Sy2, Sxy, 0, width, k);
+
+            int y = v - 1;
+            if (y < 1 || y >= height - 1) return;
             for (int x = 1; x < width - 1; x++) {
                 // thresholding : harris measure > epsilon
-                float h = harrismap[x][y];
+                float h = harrismap[y % 3][x];
                 if (h <= 1E-3) continue;
                 // keep only a local maxima
-                if (!isSpatialMaxima(harrismap, x, y)) continue;
+                if (!isSpatialMaxima(harrismap, y, x)) continue;
                 // add the corner to the list
                 corners.add(new Corner(x, y, h));
             }
         }
 
+        /**
+         * Suppress the candidates once all rows have been pushed.
+         *
+         * @param minDistance minimum distance between corners
+         * @return the found corners
+         */
+        public List<Corner> finish(int minDistance) {
+            if (read < height) {
+                throw new IllegalStateException(String.format(
+                        "Only %d of %d rows have been pushed", read, height));
+            }
+            return suppress(minDistance);
+        }
+    }
+
+    /**
+     * Vertical pass for row v from the ring of horizontally convolved rows.
+     * Pixels outside the image count as zero.
+     */
+    private void sumColumns(float[][] rows, int v, float[] kernel, float[] sum) {
+        int radius = kernel.length / 2;
+        Arrays.fill(sum, 0);
+        for (int dy = -radius; dy <= radius; dy++) {
+            int yk = v + dy;
+            if (yk < 0 || yk >= height) continue;
+            float weight = kernel[dy + radius];
+            float[] source = rows[yk % rows.length];
+            for (int x = 0; x < width; x++) {
+                sum[x] += weight * source[x];
+            }
+        }
+    }
+
+    /**
+     * return true if the measure at (x,y) is a local spatial Maxima in the
+     * ring of 3 measure rows
+     */
+    private static boolean isSpatialMaxima(float[][] hmap, int y, int x) {
+        float w = hmap[y % 3][x];
+        for (int i = 0; i < DX.length; i++) {
+            float wk = hmap[(y + DY[i]) % 3][x + DX[i]];
+            if (wk >= w) return false;
+        }
+        return true;
+    }
+
+    /**
+     * remove corners to close to each other (keep the highest measure)
+     * <p/>
+     * Candidates are taken in descending measure and a candidate is kept
+     * when no kept corner is within minDistance. Kept corners are bucketed
+     * in square cells of minDistance + 1 so only the 3x3 cells around a
+     * candidate need to be checked. Of equal measures the later candidate
+     * wins. The kept corners stay in their original order.
+     */
+    private List<Corner> suppress(int minDistance) {
         log.log(Level.FINE, corners.size() + " potential corners found.");
 
-        // remove corners to close to each other (keep the highest measure)
-        Iterator<Corner> iter = corners.iterator();
-        while (iter.hasNext()) {
-            Corner p = iter.next();
-            for (Corner n : corners) {
-                if (n == p) continue;
-                int dist = (int) Math.sqrt((p.x - n.x) * (p.x - n.x) + (p.y - n.y) * (p.y - n.y));
-                if (dist > minDistance) continue;
-                if (n.h < p.h) continue;
-                iter.remove();
-                break;
+        int count = corners.size();
+        // measure bits above the candidate index, measures are positive so
+        // the bits sort as the values
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (long) Float.floatToIntBits(corners.get(i).h) << 32 | i;
+        }
+        Arrays.sort(order);
+
+        // Candidates are distinct pixels, so a negative distance suppresses
+        // as little as 0 does
+        int cell = Math.max(minDistance, 0) + 1;
+        // (int) sqrt(d2) <= minDistance
+        long limit = (long) cell * cell;
+        long cellsX = width / cell + 1;
+
+        // open addressed cell -> first kept corner, then linked through next
+        int mask = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) * 2 - 1;
+        long[] keys = new long[mask + 1];
+        int[] heads = new int[mask + 1];
+        Arrays.fill(heads, -1);
+        int[] next = new int[count];
+        boolean[] kept = new boolean[count];
+
+        for (int o = count - 1; o >= 0; o--) {
+            int i = (int) order[o];
+            Corner p = corners.get(i);
+            long cx = p.x / cell;
+            long cy = p.y / cell;
+            boolean suppressed = false;
+            for (long ny = cy - 1; ny <= cy + 1 && !suppressed; ny++) {
+                for (long nx = cx - 1; nx <= cx + 1 && !suppressed; nx++) {
+                    if (nx < 0 || ny < 0) continue;
+                    int slot = slot(keys, heads, mask, ny * cellsX + nx);
+                    for (int n = heads[slot]; n >= 0; n = next[n]) {
+                        Corner k = corners.get(n);
+                        long dx = p.x - k.x;
+                        long dy = p.y - k.y;
+                        if (dx * dx + dy * dy < limit) {
+                            suppressed = true;
+                            break;
+                        }
+                    }
+                }
             }
+            if (suppressed) continue;
+            int slot = slot(keys, heads, mask, cy * cellsX + cx);
+            keys[slot] = cy * cellsX + cx;
+            next[i] = heads[slot];
+            heads[slot] = i;
+            kept[i] = true;
+        }
+
+        List<Corner> survivors = new ArrayList<Corner>();
+        for (int i = 0; i < count; i++) {
+            if (kept[i]) survivors.add(corners.get(i));
+        }
+        corners.clear();
+        corners.addAll(survivors);
+        log.log(Level.FINE, corners.size() + " corners found.");
+
+        return corners;
+    }
+
+    /**
+     * Slot of the cell key in the open addressed table, or the empty slot
+     * where it would go.
+     */
+    private static int slot(long[] keys, int[] heads, int mask, long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash >>> 32) & mask;
+        while (heads[slot] >= 0 && keys[slot] != key) {
+            slot = slot + 1 & mask;
         }
+        return slot;
+    }
+
+    /**
+     * Perfom the Harris Corner Detection
+     *
+     * @param sigma       gaussian filter parameter
+     * @param k           parameter of the harris measure formula
+     * @param minDistance minimum distance between corners
+     * @return the orginal image marked with cross sign at each corner
+     */
+    public int[][] filter(double sigma, double k, int minDistance) {
+        findCorners(sigma, k, minDistance);
+        return markCorners();
+    }
 
+    /**
+     * Create a debug image of the found {@link #corners}. Only needed for
+     * looking at the result, {@link #findCorners(double, double, int)} alone
+     * does not allocate it.
+     *
+     * @return the orginal image marked with cross sign at each corner
+     */
+    public int[][] markCorners() {
+        if (image == null) {
+            throw new IllegalStateException("No image to mark, corners were read from a row source");
+        }
         // output
         int[][] output = new int[width][height];
         for (int y = 0; y < height; y++)
             for (int x = 0; x < width; x++)
-                output[x][y] = (int) (image[x][y] * 0.75); // original image (darker)
+                output[x][y] = (int) (image[y * width + x] * 0.75); // original image (darker)
 
         // for each corner
         for (Corner p : corners) {
@@ -262,10 +671,9 @@ public class HarrisFast {
             }
             log.log(Level.FINE, "corner found at: " + p.x + "," + p.y + " (" + p.h + ")");
         }
-        log.log(Level.FINE, corners.size() + " corners found.");
 
         return output;
     }
 
 
-}
\ No newline at end of file
+}
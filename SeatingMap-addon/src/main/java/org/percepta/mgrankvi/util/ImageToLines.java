@@ -1,24 +1,43 @@
 package org.percepta.mgrankvi.util;
 
+import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.apache.commons.codec.binary.Base64;
 import org.percepta.mgrankvi.client.geometry.Line;
+import org.percepta.mgrankvi.client.geometry.LineBuffer;
 import org.percepta.mgrankvi.client.geometry.Point;
 
 /**
@@ -32,6 +51,20 @@ import org.percepta.mgrankvi.client.geometry.Point;
  */
 public class ImageToLines {
 
+    // parametre du filtre gaussien
+    private static final double SIGMA = 1.2;
+    // parametre de la formule de la mesure
+    private static final double K = 0.06;
+    // minimun distance between 2 corners
+    private static final int SPACING = 2;
+    // Luminance threshold for pixels of a line
+    private static final double LINE_LUMINANCE = 25.0;
+    // Pixels darker than this are followed when positioning corners
+    private static final double END_LUMINANCE = 25.0;
+    // rows read at a time when streaming an image that can't be decoded in
+    // one pass
+    private static final int STRIP_ROWS = 256;
+
     /**
      * Get lines for given image.
      *
@@ -40,16 +73,30 @@ public class ImageToLines {
      * @return List of lines found in image.
      */
     public List<Line> getLines(String imageFile) {
+        return getLineBuffer(imageFile).toLines();
+    }
+
+    /**
+     * Get lines for given image packed into a buffer. Checking for a line
+     * between two corners needs the dark pixels of the whole image, so the
+     * image is loaded whole. Use {@link #getCornerPoints(String)} for the
+     * corners of images too large for that.
+     *
+     * @param imageFile
+     *            File containing "map" to generate lines from
+     * @return buffer of lines found in image.
+     */
+    public LineBuffer getLineBuffer(String imageFile) {
         BufferedImage image = getImage(imageFile);
 
-        // If no image found cancel and return empty list
+        // If no image found cancel and return empty buffer
         if (image == null)
-            return Lists.newLinkedList();
+            return new LineBuffer();
 
         // Get corner points
         List<Point> points = getCornerPoints(image);
 
-        return getLinesForPoints(image, points);
+        return getLinesForPoints(DarkMask.of(image, LINE_LUMINANCE), points);
     }
 
     /**
@@ -62,17 +109,12 @@ public class ImageToLines {
      * @return list of lines found in image.
      */
     public List<Line> getLines(String imageFile, Point offset) {
-        List<Line> lines = getLines(imageFile);
+        LineBuffer lines = getLineBuffer(imageFile);
 
         // Set offset for lines
-        lines.forEach(line -> {
-            line.start = new Point(line.start.getX() + offset.getX(),
-                    line.start.getY() + offset.getY());
-            line.end = new Point(line.end.getX() + offset.getX(),
-                    line.end.getY() + offset.getY());
-        });
+        lines.translate(offset.getX(), offset.getY());
 
-        return lines;
+        return lines.toLines();
     }
 
     /**
@@ -167,6 +209,27 @@ public class ImageToLines {
         return image;
     }
 
+    /**
+     * Open the image from classpath or file system for reading in strips.
+     *
+     * @param filename
+     *            File to get image for.
+     * @return reader for the image
+     * @throws IOException
+     *             if the image is not found or can not be read
+     */
+    private StripReader getStripReader(String filename) throws IOException {
+        URL resource = getClass().getResource(filename);
+        if (resource != null) {
+            return new StripReader(resource.openStream());
+        }
+        File file = new File(filename);
+        if (!file.canRead()) {
+            throw new IIOException("Can't read input file " + filename);
+        }
+        return new StripReader(file);
+    }
+
     /**
      * Get corner points for image. Uses HarrisFast corner detection.
      *
@@ -175,8 +238,33 @@ public class ImageToLines {
      * @return
      */
     private static List<Point> getCornerPoints(BufferedImage image) {
-        List<HarrisFast.Corner> corners = getCorners(image);
+        return toPoints(getCorners(image));
+    }
 
+    /**
+     * Get corner points for image file without loading the whole image. The
+     * image is read once from top to bottom and only a few rows of it are
+     * kept, so memory use is proportional to the image width and the amount
+     * of corners. Gives the same points as for the loaded image.
+     * <p>
+     * PNG and JPEG images that are not interlaced are decoded in one pass.
+     * Other images are read in strips of {@link #STRIP_ROWS} rows through
+     * source regions, which PNG and JPEG readers decode from the start of the
+     * image for every strip.
+     *
+     * @param imageFile
+     *            File containing "map" to search for points
+     * @return corner points
+     * @throws IOException
+     *             if the image is not found or can not be read
+     */
+    public List<Point> getCornerPoints(String imageFile) throws IOException {
+        try (StripReader reader = getStripReader(imageFile)) {
+            return toPoints(getCorners(reader));
+        }
+    }
+
+    private static List<Point> toPoints(List<HarrisFast.Corner> corners) {
         // Put points to set to get rid of points in same position.
         Set<Point> points = Sets.newHashSet();
         for (HarrisFast.Corner corner : corners) {
@@ -188,64 +276,51 @@ public class ImageToLines {
 
     /**
      * Generate lines from found points by referring to the image to check if a
-     * line should be drawn.
+     * line should be drawn. Horizontal and vertical lines are checked from
+     * the dark pixel counts of the mask, others are sampled from it.
      *
-     * @param image
+     * @param mask
      * @param points
      * @return
      */
-    private List<Line> getLinesForPoints(BufferedImage image,
-            List<Point> points) {
-        List<Line> lines = Lists.newLinkedList();
-        List<Point> pointsLeft = Lists.newArrayList(points);
+    private LineBuffer getLinesForPoints(DarkMask mask, List<Point> points) {
+        LineBuffer lines = new LineBuffer();
+        Set<Line> found = Sets.newHashSet();
 
-        // Luminance threshold
-        double luminance = 25.0;
         // Iterate from point to point and reference to image to see if we have
         // a line between the points.
-        for (Point p : points) {
-            pointsLeft.remove(p);
-            for (Point p2 : pointsLeft) {
-                double min;
-                double max;
-                boolean foundLine = true;
-
-                if (p.getX() == p2.getX()) {
+        for (int i = 0; i < points.size(); i++) {
+            Point p = points.get(i);
+            int x = (int) p.getX();
+            int y = (int) p.getY();
+            for (int j = i + 1; j < points.size(); j++) {
+                Point p2 = points.get(j);
+                int x2 = (int) p2.getX();
+                int y2 = (int) p2.getY();
+                boolean foundLine;
+
+                if (x == x2) {
                     // Check vertical line
-                    min = Math.min(p.getY(), p2.getY());
-                    max = Math.max(p.getY(), p2.getY());
-                    for (double y = min; y < max; y++) {
-                        if (getLuminance(image.getRGB((int) p.getX(),
-                                (int) y)) > luminance) {
-                            foundLine = false;
-                            break;
-                        }
-                    }
-                } else if (p.getY() == p2.getY()) {
+                    foundLine = mask.isDarkColumn(x, Math.min(y, y2),
+                            Math.max(y, y2));
+                } else if (y == y2) {
                     // Check horizontal line
-                    min = Math.min(p.getX(), p2.getX());
-                    max = Math.max(p.getX(), p2.getX());
-                    for (double x = min; x < max; x++) {
-                        if (getLuminance(image.getRGB((int) x,
-                                (int) p.getY())) > luminance) {
-                            foundLine = false;
-                            break;
-                        }
-                    }
+                    foundLine = mask.isDarkRow(y, Math.min(x, x2),
+                            Math.max(x, x2));
                 } else {
                     // Check line with a slope (eg. not fully vertical or
                     // horizontal)
                     Double m = getSlope(p, p2);
                     Double b = intercept(p, m);
 
-                    min = Math.min(p.getX(), p2.getX());
-                    max = Math.max(p.getX(), p2.getX());
-                    for (double x = min; x <= max; x += 0.1) {
-                        double y = m * x + b;
+                    double min = Math.min(p.getX(), p2.getX());
+                    double max = Math.max(p.getX(), p2.getX());
+                    foundLine = true;
+                    for (double sx = min; sx <= max; sx += 0.1) {
+                        double sy = m * sx + b;
                         // Not on a line if even one non black pixel is found on
                         // line
-                        if (getLuminance(
-                                image.getRGB((int) x, (int) y)) > luminance) {
+                        if (!mask.isDark((int) sx, (int) sy)) {
                             foundLine = false;
                             break;
                         }
@@ -256,7 +331,7 @@ public class ImageToLines {
                 if (foundLine) {
                     Line line = new Line(p, p2);
                     // add line if not already added.
-                    if (!lines.contains(line)) {
+                    if (found.add(line)) {
                         lines.add(line);
                     }
                 }
@@ -305,26 +380,21 @@ public class ImageToLines {
             return Lists.newArrayList();
         int width = image.getWidth(); // largeur de l'image
         int height = image.getHeight(); // hauteur de l'image
-        int[][] input = new int[width][height]; // tableau 2D [x][y] contenant
-                                                // l'image en niveau de gris
-                                                // (0-255)
-
-        for (int i = 0; i < width - 1; i++) {
-            for (int j = 0; j < height - 1; j++) {
-                input[i][j] = (int) getLuminance(image.getRGB(i, j));
+        // gray levels (0-255) row by row. The last row and column are left
+        // black, which always gives a corner at the lower right.
+        float[] input = new float[width * height];
+        int[] rgb = new int[width];
+        for (int j = 0; j < height - 1; j++) {
+            image.getRGB(0, j, width - 1, 1, rgb, 0, width);
+            for (int i = 0; i < width - 1; i++) {
+                input[j * width + i] = (int) getLuminance(rgb[i]);
             }
         }
 
-        //////////////////////
-
-        double sigma = 1.2; // parametre du filtre gaussien
-        double k = 0.06; // parametre de la formule de la mesure
-        int spacing = 2; // minimun distance between 2 corners
-
         // Init
         HarrisFast hf = new HarrisFast(input, width, height);
-        // run filter to get corners.
-        hf.filter(sigma, k, spacing);
+        // run filter to get corners, bands of rows in parallel.
+        hf.findCorners(SIGMA, K, SPACING, ForkJoinPool.commonPool());
 
         List<HarrisFast.Corner> corners = hf.corners;
         // Remove the last corner as it is always the lower right corner of
@@ -343,6 +413,21 @@ public class ImageToLines {
         return corners;
     }
 
+    /**
+     * Scan for corners in image read in strips using the Harris Fast Scan
+     * algorithm.
+     *
+     * @param reader
+     *            Image to search for corners
+     * @return corners found
+     */
+    private static List<HarrisFast.Corner> getCorners(StripReader reader)
+            throws IOException {
+        CornerScan scan = new CornerScan(reader.width, reader.height);
+        reader.readRows(scan);
+        return scan.finish();
+    }
+
     private static void outputResult(BufferedImage image,
             List<HarrisFast.Corner> corners) {
         BufferedImage bufferedImage = duplicateImage(image);
@@ -371,9 +456,25 @@ public class ImageToLines {
      */
     private static void moveUntilEnd(BufferedImage image,
             HarrisFast.Corner corner) {
+        moveUntilEnd((x, y) -> getLuminance(image.getRGB(x, y)) < END_LUMINANCE,
+                image.getWidth(), image.getHeight(), corner);
+    }
+
+    /**
+     * Move corner so it is at a end point or crossing.
+     *
+     * @param pixels
+     *            dark pixels of the image
+     * @param width
+     *            image width
+     * @param height
+     *            image height
+     * @param corner
+     */
+    private static void moveUntilEnd(DarkPixels pixels, int width, int height,
+            HarrisFast.Corner corner) {
 
         int rasterSize = 4;
-        double lum = 25.0;
 
         int rasterOffset = (int) Math.floor(rasterSize / 2);
         int x = corner.x - rasterOffset;
@@ -390,22 +491,20 @@ public class ImageToLines {
         Arrays.fill(xS, 0);
         Arrays.fill(yS, 0);
         // collect x positions
-        for (int j = 0; j < rasterSize && j + y < image.getHeight(); j++) {
-            for (int i = 0; i < rasterSize && i + x < image.getWidth(); i++) {
+        for (int j = 0; j < rasterSize && j + y < height; j++) {
+            for (int i = 0; i < rasterSize && i + x < width; i++) {
                 // if X on line Y is "black" and pixel before is also "black"
                 // (or no marking yet made)
                 // add pixel in line
-                if (getLuminance(image.getRGB(i + x, j + y)) < lum
-                        && (xS[j] == 0 || getLuminance(
-                                image.getRGB(i + x - 1, j + y)) < lum)) {
+                if (pixels.isDark(i + x, j + y)
+                        && (xS[j] == 0 || pixels.isDark(i + x - 1, j + y))) {
                     xS[j]++;
                 }
                 // if Y on line X is "black" and pixel before is also "black"
                 // (or no marking yet made)
                 // add pixel in line
-                if (getLuminance(image.getRGB(i + x, j + y)) < lum
-                        && (yS[i] == 0 || getLuminance(
-                                image.getRGB(i + x, j - 1 + y)) < lum)) {
+                if (pixels.isDark(i + x, j + y)
+                        && (yS[i] == 0 || pixels.isDark(i + x, j - 1 + y))) {
                     yS[i]++;
                 }
             }
@@ -482,7 +581,7 @@ public class ImageToLines {
      *            Blue value
      * @return Luminance
      */
-    private static double getLuminance(int r, int g, int b) {
+    static double getLuminance(int r, int g, int b) {
         return .299 * r + .587 * g + .114 * b;
     }
 
@@ -509,4 +608,381 @@ public class ImageToLines {
         return encodedImage;
     }
 
+
+    /**
+     * Dark pixels of an image, for positioning corners.
+     */
+    private interface DarkPixels {
+        /**
+         * @return true if pixel (x,y) is dark
+         */
+        boolean isDark(int x, int y);
+    }
+
+    /**
+     * Corner detection over image rows given from top to bottom. Candidates
+     * are positioned as they are found against the last rows, as moveUntilEnd
+     * only looks at the rows around a corner, and get their new positions
+     * once suppression has picked the corners from the original positions.
+     */
+    private static class CornerScan {
+
+        // Rows a candidate may trail the last row given: the Harris window
+        // radius, the rows of the maxima test and the rows moveUntilEnd
+        // looks at
+        private static final int END_ROWS = (int) (2 * SIGMA) + 8;
+
+        private final int width;
+        private final int height;
+        private final HarrisFast harris;
+        private final HarrisFast.RowScan scan;
+        private final float[] gray;
+
+        // pixels darker than END_LUMINANCE of the last END_ROWS rows, row y
+        // at y % END_ROWS
+        private final long[][] ends;
+        private int rows;
+
+        // moved positions of the candidates found so far
+        private int[] endX = new int[64];
+        private int[] endY = new int[64];
+        private int positioned;
+
+        CornerScan(int width, int height) {
+            this.width = width;
+            this.height = height;
+            harris = new HarrisFast(width, height);
+            scan = harris.new RowScan(SIGMA, K);
+            gray = new float[width];
+            ends = new long[END_ROWS][(width + 63) >>> 6];
+        }
+
+        /**
+         * Add the next image row.
+         *
+         * @param y
+         *            image row
+         * @param rgb
+         *            RGB values of the row
+         */
+        void row(int y, int[] rgb) {
+            // As for a loaded image the last row and column are left black
+            Arrays.fill(gray, 0);
+            if (y < height - 1) {
+                for (int i = 0; i < width - 1; i++) {
+                    gray[i] = (int) getLuminance(rgb[i]);
+                }
+            }
+            long[] bits = ends[y % END_ROWS];
+            Arrays.fill(bits, 0);
+            for (int x = 0; x < width; x++) {
+                if (getLuminance(rgb[x]) < END_LUMINANCE) {
+                    bits[x >>> 6] |= 1L << x;
+                }
+            }
+            scan.push(gray);
+            rows = y + 1;
+
+            List<HarrisFast.Corner> candidates = harris.corners;
+            if (candidates.size() > endX.length) {
+                endX = Arrays.copyOf(endX, Math.max(endX.length * 2,
+                        candidates.size()));
+                endY = Arrays.copyOf(endY, endX.length);
+            }
+            for (; positioned < candidates.size(); positioned++) {
+                HarrisFast.Corner corner = candidates.get(positioned);
+                int x = corner.x;
+                int cornerY = corner.y;
+                moveUntilEnd(this::isEnd, width, height, corner);
+                endX[positioned] = corner.x;
+                endY[positioned] = corner.y;
+                corner.x = x;
+                corner.y = cornerY;
+            }
+        }
+
+        private boolean isEnd(int x, int y) {
+            if (y >= rows || y < rows - END_ROWS) {
+                throw new IllegalStateException(String.format(
+                        "Row %d is not among the last %d rows before %d", y,
+                        END_ROWS, rows));
+            }
+            return (ends[y % END_ROWS][x >>> 6] & 1L << x) != 0;
+        }
+
+        /**
+         * @return positioned corners once all rows have been given
+         */
+        List<HarrisFast.Corner> finish() {
+            List<HarrisFast.Corner> candidates = new ArrayList<>(
+                    harris.corners);
+            List<HarrisFast.Corner> corners = scan.finish(SPACING);
+            // Remove the last corner as it is always the lower right corner of
+            // image enen though there was no point there.
+            corners.remove(corners.size() - 1);
+            // Corners keep the candidate order
+            int candidate = 0;
+            for (HarrisFast.Corner corner : corners) {
+                while (candidates.get(candidate) != corner) {
+                    candidate++;
+                }
+                corner.x = endX[candidate];
+                corner.y = endY[candidate];
+            }
+            return corners;
+        }
+    }
+
+    /**
+     * Reads an image from top to bottom and gives its rows to a
+     * {@link CornerScan}. Images the reader decodes row by row in order are
+     * decoded in one pass into a destination backed by a {@link RowRing},
+     * others are read in strips of rows through {@link ImageReadParam}
+     * source regions.
+     */
+    private static class StripReader implements Closeable {
+
+        private final Object input;
+        private final ImageInputStream stream;
+        private ImageReader reader;
+        private final int width;
+        private final int height;
+        private final int[] rgb;
+
+        /**
+         * @param input
+         *            image file or stream, a stream is closed with the reader
+         */
+        StripReader(Object input) throws IOException {
+            this.input = input;
+            stream = ImageIO.createImageInputStream(input);
+            if (stream == null) {
+                close();
+                throw new IIOException("Can't create an ImageInputStream!");
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                close();
+                throw new IIOException("No reader for the image");
+            }
+            reader = readers.next();
+            reader.setInput(stream);
+            width = reader.getWidth(0);
+            height = reader.getHeight(0);
+            rgb = new int[width];
+        }
+
+        /**
+         * Read image rows top until top + rows.
+         */
+        BufferedImage readStrip(int top, int rows) throws IOException {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, top, width, rows));
+            return reader.read(0, param);
+        }
+
+        /**
+         * Give all image rows to scan from top to bottom.
+         */
+        void readRows(CornerScan scan) throws IOException {
+            if (decodesInOrder() && readInOrder(scan)) {
+                return;
+            }
+            for (int top = 0; top < height; top += STRIP_ROWS) {
+                BufferedImage strip = readStrip(top,
+                        Math.min(STRIP_ROWS, height - top));
+                for (int j = 0; j < strip.getHeight(); j++) {
+                    strip.getRGB(0, j, width, 1, rgb, 0, width);
+                    scan.row(top + j, rgb);
+                }
+            }
+        }
+
+        /**
+         * @return true for the PNG and JPEG images whose reader writes each
+         *         row once and in order
+         */
+        private boolean decodesInOrder() throws IOException {
+            String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+            if (format.equals("png")) {
+                IIOMetadataNode header = find(
+                        "javax_imageio_png_1.0", "IHDR");
+                return header != null && "none"
+                        .equals(header.getAttribute("interlaceMethod"));
+            }
+            if (format.equals("jpeg")) {
+                // Progressive images are decoded in several passes
+                IIOMetadataNode frame = find(
+                        "javax_imageio_jpeg_image_1.0", "sof");
+                return frame != null
+                        && !"2".equals(frame.getAttribute("process"));
+            }
+            return false;
+        }
+
+        private IIOMetadataNode find(String format, String element)
+                throws IOException {
+            IIOMetadataNode tree = (IIOMetadataNode) reader
+                    .getImageMetadata(0).getAsTree(format);
+            return (IIOMetadataNode) tree.getElementsByTagName(element)
+                    .item(0);
+        }
+
+        /**
+         * Decode the image in one pass, giving each row to scan as soon as
+         * the reader has written it.
+         *
+         * @return false if the destination can't be backed by a ring of rows,
+         *         nothing has been read then
+         */
+        private boolean readInOrder(CornerScan scan) throws IOException {
+            ImageTypeSpecifier type = reader.getImageTypes(0).next();
+            SampleModel model = type.getSampleModel(width, height);
+            int stride;
+            int banks = 1;
+            if (model instanceof ComponentSampleModel) {
+                stride = ((ComponentSampleModel) model).getScanlineStride();
+                for (int bank : ((ComponentSampleModel) model)
+                        .getBankIndices()) {
+                    banks = Math.max(banks, bank + 1);
+                }
+            } else if (model instanceof SinglePixelPackedSampleModel) {
+                stride = ((SinglePixelPackedSampleModel) model)
+                        .getScanlineStride();
+            } else if (model instanceof MultiPixelPackedSampleModel) {
+                stride = ((MultiPixelPackedSampleModel) model)
+                        .getScanlineStride();
+            } else {
+                return false;
+            }
+            if ((long) stride * height > Integer.MAX_VALUE) {
+                return false;
+            }
+            RowRing ring = new RowRing(model.getDataType(), stride, height,
+                    banks);
+            BufferedImage image = new BufferedImage(type.getColorModel(),
+                    Raster.createWritableRaster(model, ring, null),
+                    type.getColorModel().isAlphaPremultiplied(), null);
+
+            IIOReadUpdateListener listener = new IIOReadUpdateListener() {
+                @Override
+                public void imageUpdate(ImageReader source,
+                        BufferedImage theImage, int minX, int minY,
+                        int updateWidth, int updateHeight, int periodX,
+                        int periodY, int[] bands) {
+                    if (minX != 0 || updateWidth != width || periodX != 1
+                            || periodY != 1 || minY != ring.first) {
+                        ring.outOfOrder = true;
+                    }
+                    if (ring.outOfOrder) {
+                        source.abort();
+                        return;
+                    }
+                    for (int y = minY; y < minY + updateHeight; y++) {
+                        theImage.getRGB(0, y, width, 1, rgb, 0, width);
+                        scan.row(y, rgb);
+                        ring.first = y + 1;
+                    }
+                }
+
+                @Override
+                public void passStarted(ImageReader source,
+                        BufferedImage theImage, int pass, int minPass,
+                        int maxPass, int minX, int minY, int periodX,
+                        int periodY, int[] bands) {
+                }
+
+                @Override
+                public void passComplete(ImageReader source,
+                        BufferedImage theImage) {
+                }
+
+                @Override
+                public void thumbnailPassStarted(ImageReader source,
+                        BufferedImage theThumbnail, int pass, int minPass,
+                        int maxPass, int minX, int minY, int periodX,
+                        int periodY, int[] bands) {
+                }
+
+                @Override
+                public void thumbnailUpdate(ImageReader source,
+                        BufferedImage theThumbnail, int minX, int minY,
+                        int width, int height, int periodX, int periodY,
+                        int[] bands) {
+                }
+
+                @Override
+                public void thumbnailPassComplete(ImageReader source,
+                        BufferedImage theThumbnail) {
+                }
+            };
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(image);
+            reader.addIIOReadUpdateListener(listener);
+            try {
+                reader.read(0, param);
+            } finally {
+                reader.removeIIOReadUpdateListener(listener);
+            }
+            if (ring.outOfOrder || ring.first != height) {
+                throw new IIOException(String.format(
+                        "%s reader gave %d of %d rows in order",
+                        reader.getFormatName(), ring.first, height));
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null)
+                reader.dispose();
+            if (stream != null)
+                stream.close();
+            if (input instanceof Closeable)
+                ((Closeable) input).close();
+        }
+    }
+
+    /**
+     * Image data of which only the rows being decoded are kept, for a
+     * destination image the reader writes row by row from top to bottom.
+     * Elements of row y are at y * stride + offset in every bank, as in the
+     * sample models of decoded images. Rows can be written from the first
+     * row not yet taken until {@link #ROWS} rows after it, other writes mark
+     * the data as out of order and are dropped.
+     */
+    private static class RowRing extends DataBuffer {
+
+        private static final int ROWS = 8;
+
+        private final int stride;
+        private final int[][] rows;
+
+        // first row not yet taken from the image
+        int first;
+        boolean outOfOrder;
+
+        RowRing(int dataType, int stride, int height, int banks) {
+            super(dataType, stride * height, banks);
+            this.stride = stride;
+            rows = new int[banks][ROWS * stride];
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            int y = i / stride;
+            return rows[bank][y % ROWS * stride + i - y * stride];
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            int y = i / stride;
+            if (y < first || y >= first + ROWS) {
+                outOfOrder = true;
+                return;
+            }
+            rows[bank][y % ROWS * stride + i - y * stride] = val;
+        }
+    }
 }
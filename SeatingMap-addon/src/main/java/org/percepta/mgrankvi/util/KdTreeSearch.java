@@ -0,0 +1,237 @@
+package org.percepta.mgrankvi.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.percepta.mgrankvi.client.geometry.Point;
+import org.percepta.mgrankvi.path.Node;
+
+/**
+ * Nearest search using a static two dimensional kd-tree.
+ * <p>
+ * The tree is implicit: nodes are reordered so that the median of every range
+ * is its splitting node, with the lower half before and the upper half after
+ * it. Coordinates are kept in flat arrays in the same order. Building takes
+ * O(n log n) and a query visits O(log n) nodes for evenly spread points.
+ * Queries do not modify the tree and can run from several threads.
+ */
+public class KdTreeSearch implements NearestSearch {
+
+    private Node[] nodes = new Node[0];
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+
+    /**
+     * Closest node found so far by a query.
+     */
+    private static class Match {
+        int index = -1;
+        double squaredDistance = Double.POSITIVE_INFINITY;
+    }
+
+    public KdTreeSearch() {
+    }
+
+    @Override
+    public void setNodes(List<Node> nodes) {
+        int size = nodes.size();
+        this.nodes = nodes.toArray(new Node[size]);
+        xs = new double[size];
+        ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            Point position = this.nodes[i].getPosition();
+            xs[i] = position.getX();
+            ys[i] = position.getY();
+        }
+        build(0, size, true);
+    }
+
+    /**
+     * Order range so that its median splits it on x or y and recurse into
+     * both halves with the other axis.
+     */
+    private void build(int from, int to, boolean splitX) {
+        if (to - from <= 1) {
+            return;
+        }
+        int median = (from + to) >>> 1;
+        select(from, to - 1, median, splitX ? xs : ys);
+        build(from, median, !splitX);
+        build(median + 1, to, !splitX);
+    }
+
+    /**
+     * Quickselect the k:th smallest of keys between left and right inclusive.
+     */
+    private void select(int left, int right, int k, double[] keys) {
+        while (right > left) {
+            // Median of three pivot keeps sorted input linear
+            int middle = (left + right) >>> 1;
+            if (keys[middle] < keys[left]) {
+                swap(middle, left);
+            }
+            if (keys[right] < keys[left]) {
+                swap(right, left);
+            }
+            if (keys[right] < keys[middle]) {
+                swap(right, middle);
+            }
+            double pivot = keys[middle];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        Node node = nodes[i];
+        nodes[i] = nodes[j];
+        nodes[j] = node;
+        double x = xs[i];
+        xs[i] = xs[j];
+        xs[j] = x;
+        double y = ys[i];
+        ys[i] = ys[j];
+        ys[j] = y;
+    }
+
+    @Override
+    public Node getNearest(Point centerPoint) {
+        if (nodes.length == 0) {
+            return null;
+        }
+        Match match = new Match();
+        search(0, nodes.length, true, centerPoint.getX(), centerPoint.getY(),
+                match);
+        return nodes[match.index];
+    }
+
+    private void search(int from, int to, boolean splitX, double x, double y,
+            Match match) {
+        while (from < to) {
+            int median = (from + to) >>> 1;
+            double dx = xs[median] - x;
+            double dy = ys[median] - y;
+            double distance = dx * dx + dy * dy;
+            if (distance < match.squaredDistance) {
+                match.squaredDistance = distance;
+                match.index = median;
+            }
+
+            // Search the side of the query point first, the other side only
+            // if the splitting line is closer than the best match
+            double offset = splitX ? -dx : -dy;
+            int nearFrom = offset < 0 ? from : median + 1;
+            int nearTo = offset < 0 ? median : to;
+            int farFrom = offset < 0 ? median + 1 : from;
+            int farTo = offset < 0 ? to : median;
+            search(nearFrom, nearTo, !splitX, x, y, match);
+            if (offset * offset >= match.squaredDistance) {
+                return;
+            }
+            from = farFrom;
+            to = farTo;
+            splitX = !splitX;
+        }
+    }
+
+    @Override
+    public List<Node> getKNearest(Point point, int k) {
+        if (k <= 0) {
+            return new ArrayList<>(0);
+        }
+        NearestHeap heap = NearestHeap.get(k);
+        collect(0, nodes.length, true, point.getX(), point.getY(),
+                Double.POSITIVE_INFINITY, heap, null, 0);
+        return heap.drainAscending(nodes);
+    }
+
+    @Override
+    public List<Node> getWithinRadius(Point point, double radius) {
+        NearestHeap heap = NearestHeap.get(Integer.MAX_VALUE);
+        collect(0, nodes.length, true, point.getX(), point.getY(),
+                radius * radius, heap, null, 0);
+        return heap.drainAscending(nodes);
+    }
+
+    /**
+     * Offer nodes of the tree to a heap shared with other trees.
+     *
+     * @param maxSquared
+     *            squared maximum distance of offered nodes
+     * @param excluded
+     *            nodes not to offer, or null
+     * @param base
+     *            value added to the node position in this tree when offered
+     */
+    void collect(double x, double y, double maxSquared, NearestHeap heap,
+            Set<Node> excluded, int base) {
+        collect(0, nodes.length, true, x, y, maxSquared, heap, excluded, base);
+    }
+
+    /**
+     * @return amount of nodes in the tree
+     */
+    int nodeCount() {
+        return nodes.length;
+    }
+
+    /**
+     * @return node at position of the tree order
+     */
+    Node getNode(int position) {
+        return nodes[position];
+    }
+
+    /**
+     * Offer all nodes at most the square root of maxSquared away to the heap,
+     * skipping subtrees that can not beat the heap bound.
+     */
+    private void collect(int from, int to, boolean splitX, double x, double y,
+            double maxSquared, NearestHeap heap, Set<Node> excluded,
+            int base) {
+        while (from < to) {
+            int median = (from + to) >>> 1;
+            double dx = xs[median] - x;
+            double dy = ys[median] - y;
+            double distance = dx * dx + dy * dy;
+            if (distance <= maxSquared && (excluded == null
+                    || !excluded.contains(nodes[median]))) {
+                heap.offer(distance, base + median);
+            }
+
+            double offset = splitX ? -dx : -dy;
+            int nearFrom = offset < 0 ? from : median + 1;
+            int nearTo = offset < 0 ? median : to;
+            int farFrom = offset < 0 ? median + 1 : from;
+            int farTo = offset < 0 ? to : median;
+            collect(nearFrom, nearTo, !splitX, x, y, maxSquared, heap,
+                    excluded, base);
+            double offsetSquared = offset * offset;
+            if (offsetSquared > maxSquared || offsetSquared >= heap.bound()) {
+                return;
+            }
+            from = farFrom;
+            to = farTo;
+            splitX = !splitX;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.percepta.mgrankvi.util;
+
+import java.util.Arrays;
+
+import org.percepta.mgrankvi.client.geometry.Point;
+
+/**
+ * Orders points along a Morton (z-order) curve so that points close to each
+ * other are mostly handled one after another. Batch queries in this order
+ * touch the same part of a search structure repeatedly, which keeps it in
+ * cache.
+ */
+final class MortonOrder {
+
+    // Bits per coordinate after scaling to the bounding box, the interleaved
+    // code stays positive so it sorts as a signed value
+    private static final int BITS = 15;
+
+    private MortonOrder() {
+    }
+
+    /**
+     * Get the visiting order of points.
+     *
+     * @param points
+     *            points to order
+     * @return indexes of points in curve order
+     */
+    static int[] sort(Point[] points) {
+        int size = points.length;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (Point point : points) {
+            minX = Math.min(minX, point.getX());
+            minY = Math.min(minY, point.getY());
+            maxX = Math.max(maxX, point.getX());
+            maxY = Math.max(maxY, point.getY());
+        }
+        double scale = ((1 << BITS) - 1)
+                / Math.max(Math.max(maxX - minX, maxY - minY), 1);
+
+        long[] codes = new long[size];
+        for (int i = 0; i < size; i++) {
+            int x = (int) ((points[i].getX() - minX) * scale);
+            int y = (int) ((points[i].getY() - minY) * scale);
+            codes[i] = ((long) (spread(x) | (spread(y) << 1)) << 32) | i;
+        }
+        Arrays.sort(codes);
+
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (int) codes[i];
+        }
+        return order;
+    }
+
+    /**
+     * Move the low 16 bits of value to the even bit positions.
+     */
+    private static int spread(int value) {
+        value &= 0xFFFF;
+        value = (value | (value << 8)) & 0x00FF00FF;
+        value = (value | (value << 4)) & 0x0F0F0F0F;
+        value = (value | (value << 2)) & 0x33333333;
+        value = (value | (value << 1)) & 0x55555555;
+        return value;
+    }
+}
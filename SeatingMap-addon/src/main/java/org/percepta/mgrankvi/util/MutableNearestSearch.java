@@ -0,0 +1,33 @@
+package org.percepta.mgrankvi.util;
+
+import org.percepta.mgrankvi.path.Node;
+
+/**
+ * Nearest search that can be updated one node at a time instead of being
+ * rebuilt with {@link #setNodes(java.util.List)}.
+ */
+public interface MutableNearestSearch extends NearestSearch {
+
+    /**
+     * Add node to the search. Adding a node that is already in the search does
+     * nothing.
+     *
+     * @param node
+     *            node to add
+     */
+    void add(Node node);
+
+    /**
+     * Remove node from the search.
+     *
+     * @param node
+     *            node to remove
+     * @return true if the node was in the search
+     */
+    boolean remove(Node node);
+
+    /**
+     * @return amount of nodes in the search
+     */
+    int size();
+}
@@ -0,0 +1,132 @@
+package org.percepta.mgrankvi.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.percepta.mgrankvi.path.Node;
+
+/**
+ * Max heap of candidate node indexes keyed by squared distance, used by the
+ * nearest search implementations to collect the k closest nodes. With a limit
+ * the farthest candidate is dropped when the heap is full.
+ * <p>
+ * Each thread reuses one heap through {@link #get(int)}, so queries do not
+ * allocate apart from the returned list.
+ */
+class NearestHeap {
+
+    private static final ThreadLocal<NearestHeap> HEAPS = ThreadLocal
+            .withInitial(NearestHeap::new);
+
+    private double[] keys = new double[16];
+    private int[] values = new int[16];
+    private int size;
+    private int limit;
+
+    /**
+     * Get the cleared heap of the current thread.
+     *
+     * @param limit
+     *            maximum amount of candidates to keep
+     * @return empty heap
+     */
+    static NearestHeap get(int limit) {
+        NearestHeap heap = HEAPS.get();
+        heap.size = 0;
+        heap.limit = limit;
+        return heap;
+    }
+
+    /**
+     * @return squared distance a candidate needs to be below to be kept
+     */
+    double bound() {
+        return size < limit ? Double.POSITIVE_INFINITY : keys[0];
+    }
+
+    /**
+     * @return value of the farthest candidate
+     */
+    int peek() {
+        return values[0];
+    }
+
+    void offer(double key, int value) {
+        if (size < limit) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int position = size++;
+            // Sift up
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (keys[parent] >= key) {
+                    break;
+                }
+                keys[position] = keys[parent];
+                values[position] = values[parent];
+                position = parent;
+            }
+            keys[position] = key;
+            values[position] = value;
+        } else if (key < keys[0]) {
+            siftDown(key, value);
+        }
+    }
+
+    private void siftDown(double key, int value) {
+        int position = 0;
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && keys[child + 1] > keys[child]) {
+                child++;
+            }
+            if (keys[child] <= key) {
+                break;
+            }
+            keys[position] = keys[child];
+            values[position] = values[child];
+            position = child;
+        }
+        keys[position] = key;
+        values[position] = value;
+    }
+
+    /**
+     * Empty the heap into an array of values ordered from the closest.
+     *
+     * @return candidate values by ascending distance
+     */
+    int[] drainValuesAscending() {
+        int[] ordered = new int[size];
+        while (size > 0) {
+            ordered[size - 1] = values[0];
+            size--;
+            if (size > 0) {
+                siftDown(keys[size], values[size]);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Empty the heap into a list ordered from the closest node.
+     *
+     * @param nodes
+     *            nodes the candidate values index
+     * @return candidate nodes by ascending distance
+     */
+    List<Node> drainAscending(Node[] nodes) {
+        int[] ordered = drainValuesAscending();
+        List<Node> result = new ArrayList<>(ordered.length);
+        for (int value : ordered) {
+            result.add(nodes[value]);
+        }
+        return result;
+    }
+}
@@ -1,5 +1,6 @@
 package org.percepta.mgrankvi.util;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.percepta.mgrankvi.client.geometry.Point;
@@ -7,7 +8,7 @@ import org.percepta.mgrankvi.path.Node;
 
 /**
  * Interface for getting the nearest Node for given point.
- * 
+ *
  * This can be implemented and given to the SeatingMap if one wants to have a
  * better implementation than the default simple implementation.
  */
@@ -16,4 +17,64 @@ public interface NearestSearch {
     void setNodes(List<Node> nodes);
 
     Node getNearest(Point centerPoint);
+
+    /**
+     * Get the nearest node for a batch of points. Points are queried in Morton
+     * curve order so that consecutive queries hit nearby nodes.
+     *
+     * @param points
+     *            points to search from
+     * @return nearest node of each point in the order of points
+     */
+    default Node[] getNearest(Point[] points) {
+        Node[] nearest = new Node[points.length];
+        for (int index : MortonOrder.sort(points)) {
+            nearest[index] = getNearest(points[index]);
+        }
+        return nearest;
+    }
+
+    /**
+     * Get the k nodes closest to point.
+     * <p>
+     * The default implementation only knows the single nearest node and
+     * returns at most that one. Implementations should override this.
+     *
+     * @param point
+     *            point to search from
+     * @param k
+     *            maximum amount of nodes to return
+     * @return nodes ordered from the closest
+     */
+    default List<Node> getKNearest(Point point, int k) {
+        List<Node> result = new ArrayList<>(1);
+        Node nearest = k > 0 ? getNearest(point) : null;
+        if (nearest != null) {
+            result.add(nearest);
+        }
+        return result;
+    }
+
+    /**
+     * Get all nodes at most radius away from point.
+     * <p>
+     * The default implementation only knows the single nearest node and
+     * returns at most that one. Implementations should override this.
+     *
+     * @param point
+     *            point to search from
+     * @param radius
+     *            maximum distance from point
+     * @return nodes ordered from the closest
+     */
+    default List<Node> getWithinRadius(Point point, double radius) {
+        List<Node> result = new ArrayList<>(1);
+        Node nearest = getNearest(point);
+        if (nearest != null && Math.hypot(
+                nearest.getPosition().getX() - point.getX(),
+                nearest.getPosition().getY() - point.getY()) <= radius) {
+            result.add(nearest);
+        }
+        return result;
+    }
 }
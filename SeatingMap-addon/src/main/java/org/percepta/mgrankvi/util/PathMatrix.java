@@ -1,146 +1,239 @@
 package org.percepta.mgrankvi.util;
 
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-import java.util.Vector;
-import java.util.stream.IntStream;
 
 import org.percepta.mgrankvi.client.geometry.Point;
 import org.percepta.mgrankvi.path.Node;
 
 /**
  * Created by Mikael on 28/04/17.
+ * <p>
+ * Uniform grid over the bounding box of the nodes. Nodes are counting sorted by
+ * cell into flat arrays with a start offset per cell, so memory depends on the
+ * node count and not on the floor area. The grid is searched in rings of cells
+ * around the query point until no unvisited cell can hold a closer node.
  */
 public class PathMatrix implements NearestSearch {
 
-    int maxX = 0;
-    int maxY = 0;
+    // Average amount of nodes per cell when the size is chosen automatically
+    private static final double NODES_PER_CELL = 2;
+    // Upper bound for the cell count relative to the node count
+    private static final int MAX_CELLS_PER_NODE = 4;
 
-    Vector<Vector<Set<Node>>> matrix;
+    private final double requestedCellSize;
 
+    private double cellSize;
+    private double minX;
+    private double minY;
+    private int columns;
+    private int rows;
+
+    // Nodes of cell c are at cellStart[c] until cellStart[c + 1]
+    private int[] cellStart = new int[1];
+    private Node[] nodes = new Node[0];
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+
+    /**
+     * Create grid with a cell size chosen from the node density.
+     */
     public PathMatrix() {
+        this(0);
     }
 
-    @Override
-    public void setNodes(List<Node> nodes) {
-        nodes.forEach(this::evaluateMax);
-
-        maxX++;
-        maxY++;
-
-        matrix = new Vector<>(maxY);
-        IntStream.range(0, maxY).forEach(i -> {
-            matrix.add(new Vector<>(maxX));
-            IntStream.range(0, maxX)
-                    .forEach(j -> matrix.get(i).add(new HashSet()));
-        });
-        nodes.forEach(node -> {
-            int y = getMaxByHundred(node.getPosition().getY());
-            int x = getMaxByHundred(node.getPosition().getX());
-            Set<Node> nodeSet = matrix.get(y).get(x);
-            nodeSet.add(node);
-        });
+    /**
+     * Create grid with given cell size. The size is increased if the floor
+     * would need more than four cells per node.
+     *
+     * @param cellSize
+     *            cell side length in pixels, 0 or less to choose automatically
+     */
+    public PathMatrix(double cellSize) {
+        requestedCellSize = cellSize;
     }
 
-    private void evaluateMax(Node node) {
-        int y = getMaxByHundred(node.getPosition().getY());
-        int x = getMaxByHundred(node.getPosition().getX());
-        if (y > maxY) {
-            maxY = y;
+    @Override
+    public void setNodes(List<Node> nodeList) {
+        int size = nodeList.size();
+        if (size == 0) {
+            columns = rows = 0;
+            cellStart = new int[1];
+            nodes = new Node[0];
+            xs = ys = new double[0];
+            return;
+        }
+
+        minX = minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (Node node : nodeList) {
+            Point position = node.getPosition();
+            minX = Math.min(minX, position.getX());
+            minY = Math.min(minY, position.getY());
+            maxX = Math.max(maxX, position.getX());
+            maxY = Math.max(maxY, position.getY());
+        }
+        double width = Math.max(maxX - minX, 1);
+        double height = Math.max(maxY - minY, 1);
+
+        cellSize = requestedCellSize > 0 ? requestedCellSize
+                : Math.sqrt(width * height * NODES_PER_CELL / size);
+        long maxCells = (long) MAX_CELLS_PER_NODE * size;
+        while (cellCount(width, height) > maxCells) {
+            cellSize *= 2;
+        }
+        columns = (int) (width / cellSize) + 1;
+        rows = (int) (height / cellSize) + 1;
+
+        // Count nodes per cell, turn the counts into start offsets and place
+        int[] cells = new int[size];
+        cellStart = new int[columns * rows + 1];
+        for (int i = 0; i < size; i++) {
+            Point position = nodeList.get(i).getPosition();
+            cells[i] = row(position.getY()) * columns
+                    + column(position.getX());
+            cellStart[cells[i] + 1]++;
         }
-        if (x > maxX) {
-            maxX = x;
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        int[] fill = new int[columns * rows];
+        nodes = new Node[size];
+        xs = new double[size];
+        ys = new double[size];
+        for (int i = 0; i < size; i++) {
+            Node node = nodeList.get(i);
+            int position = cellStart[cells[i]] + fill[cells[i]]++;
+            nodes[position] = node;
+            xs[position] = node.getPosition().getX();
+            ys[position] = node.getPosition().getY();
         }
     }
 
-    private int getMaxByHundred(double value) {
-        return (int) value / 100;
+    private long cellCount(double width, double height) {
+        return ((long) (width / cellSize) + 1)
+                * ((long) (height / cellSize) + 1);
+    }
+
+    private int column(double x) {
+        return clamp((int) Math.floor((x - minX) / cellSize), columns);
+    }
+
+    private int row(double y) {
+        return clamp((int) Math.floor((y - minY) / cellSize), rows);
+    }
+
+    private static int clamp(int value, int count) {
+        return value < 0 ? 0 : value >= count ? count - 1 : value;
+    }
+
+    /**
+     * @return side length of the grid cells
+     */
+    public double getCellSize() {
+        return cellSize;
     }
 
     @Override
     public Node getNearest(Point centerPoint) {
-        int y = getMaxByHundred(centerPoint.getY());
-        int x = getMaxByHundred(centerPoint.getX());
-
-        int dx = 1;
-        int dy = 0;
-        int segment_length = 1;
-
-        int segment_passed = 0;
-        int cutoff = maxX * maxY;
-        int tries = 0;
-
-        // The cutoff is not efficient if running close to the sides
-        // but the expectation is that a point would be found really
-        // close to the search point.
-        //
-        Node nearest = null;
-        boolean segmentDone = false;
-        do {
-            // Only check nearest if we reside inside matrix, else just advance.
-            if (y < maxY || x < maxX || y >= 0 || x >= 0) {
-                Node newNearest = getNearest(x, y, nearest);
-                if (nearest != null) {
-                    double distance = Math.hypot(
-                            x - nearest.getPosition().getX(),
-                            y - nearest.getPosition().getY());
-                    double newDistance = Math.hypot(
-                            x - newNearest.getPosition().getX(),
-                            y - newNearest.getPosition().getY());
-                    if (distance > newDistance) {
-                        nearest = newNearest;
+        if (nodes.length == 0) {
+            return null;
+        }
+        NearestHeap heap = NearestHeap.get(1);
+        collectNearest(centerPoint.getX(), centerPoint.getY(), heap);
+        return nodes[heap.peek()];
+    }
+
+    @Override
+    public List<Node> getKNearest(Point point, int k) {
+        if (k <= 0 || nodes.length == 0) {
+            return new ArrayList<>(0);
+        }
+        NearestHeap heap = NearestHeap.get(k);
+        collectNearest(point.getX(), point.getY(), heap);
+        return heap.drainAscending(nodes);
+    }
+
+    @Override
+    public List<Node> getWithinRadius(Point point, double radius) {
+        NearestHeap heap = NearestHeap.get(Integer.MAX_VALUE);
+        double x = point.getX();
+        double y = point.getY();
+        double maxSquared = radius * radius;
+        if (nodes.length > 0 && radius >= 0) {
+            for (int r = row(y - radius); r <= row(y + radius); r++) {
+                for (int c = column(x - radius); c <= column(x
+                        + radius); c++) {
+                    int cell = r * columns + c;
+                    for (int i = cellStart[cell]; i < cellStart[cell
+                            + 1]; i++) {
+                        double dx = xs[i] - x;
+                        double dy = ys[i] - y;
+                        double distance = dx * dx + dy * dy;
+                        if (distance <= maxSquared) {
+                            heap.offer(distance, i);
+                        }
                     }
-                } else {
-                    nearest = newNearest;
                 }
             }
+        }
+        return heap.drainAscending(nodes);
+    }
 
-            x += dx;
-            y += dy;
-            segment_passed++;
-            segmentDone = false;
-            if (segment_length == segment_passed) {
-                segment_passed = 0;
-                int holder = dx;
-                dx = -dy;
-                dy = holder;
-                if (dy == 0) {
-                    segment_length++;
-                    segmentDone = true;
+    /**
+     * Search rings of cells around the point until the heap is full and no
+     * unvisited cell can hold a node closer than the farthest one in it.
+     */
+    private void collectNearest(double x, double y, NearestHeap heap) {
+        int column = column(x);
+        int row = row(y);
+        for (int ring = 0;; ring++) {
+            int left = column - ring;
+            int right = column + ring;
+            int top = row - ring;
+            int bottom = row + ring;
+            for (int r = Math.max(top, 0); r <= Math.min(bottom,
+                    rows - 1); r++) {
+                boolean edgeRow = r == top || r == bottom;
+                for (int c = Math.max(left, 0); c <= Math.min(right,
+                        columns - 1); c++) {
+                    if (!edgeRow && c != left && c != right) {
+                        // Inner cells were visited by earlier rings
+                        c = right - 1;
+                        continue;
+                    }
+                    int cell = r * columns + c;
+                    for (int i = cellStart[cell]; i < cellStart[cell
+                            + 1]; i++) {
+                        double dx = xs[i] - x;
+                        double dy = ys[i] - y;
+                        heap.offer(dx * dx + dy * dy, i);
+                    }
                 }
             }
-            tries++;
-            // Run whole segment for the off chance that we have a
-            // closer match than the first found.
-        } while ((nearest == null && !segmentDone) || cutoff <= tries);
-
-        return nearest;
-    }
 
-    private Node getNearest(int x, int y, Node currentNearest) {
-        Node nearest = null;
-        double dist = Double.MAX_VALUE;
-
-        for (Node node : matrix.get(y).get(x)) {
-            double distance = Math.hypot(x - node.getPosition().getX(),
-                    y - node.getPosition().getY());
-            if (distance < dist) {
-                nearest = node;
-                dist = distance;
+            // Any unvisited cell lies beyond one of the sides of the visited
+            // square that still has cells past it
+            double bound = Double.POSITIVE_INFINITY;
+            if (left > 0) {
+                bound = Math.min(bound, x - (minX + left * cellSize));
             }
-        }
-        // Check if the old nearest if closer than the one found in this cell.
-        if (currentNearest != null) {
-            double currentDistance = Math.hypot(
-                    x - currentNearest.getPosition().getX(),
-                    y - currentNearest.getPosition().getY());
-            double newDistance = Math.hypot(x - nearest.getPosition().getX(),
-                    y - nearest.getPosition().getY());
-            if (currentDistance < newDistance) {
-                nearest = currentNearest;
+            if (right < columns - 1) {
+                bound = Math.min(bound, minX + (right + 1) * cellSize - x);
+            }
+            if (top > 0) {
+                bound = Math.min(bound, y - (minY + top * cellSize));
+            }
+            if (bottom < rows - 1) {
+                bound = Math.min(bound, minY + (bottom + 1) * cellSize - y);
+            }
+            if (bound == Double.POSITIVE_INFINITY) {
+                return;
+            }
+            if (bound > 0 && bound * bound >= heap.bound()) {
+                return;
             }
         }
-        return nearest;
     }
 }
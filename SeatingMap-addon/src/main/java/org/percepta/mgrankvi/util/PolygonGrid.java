@@ -0,0 +1,211 @@
+package org.percepta.mgrankvi.util;
+
+import java.util.List;
+
+import org.percepta.mgrankvi.client.geometry.Line;
+
+/**
+ * Uniform grid index of polygons, such as the rooms or tables of a floor, for
+ * finding the polygon that contains a point.
+ * <p>
+ * A polygon is given as its outline lines in any order. Edges of all polygons
+ * are kept in flat coordinate arrays with a start offset per polygon, next to
+ * a precomputed bounding box per polygon. Each polygon is listed in every cell
+ * its bounding box overlaps, counting sorted into one flat index array. A
+ * query only tests the polygons of its own cell, first against the bounding
+ * box and then with an even-odd crossing test over the edges.
+ * <p>
+ * The index is immutable and can be queried from several threads.
+ */
+public class PolygonGrid {
+
+    // Average amount of cells a polygon bounding box covers on each axis
+    private static final double CELLS_PER_POLYGON = 1.5;
+    // Upper bound for the cell count relative to the polygon count
+    private static final int MAX_CELLS_PER_POLYGON = 4;
+
+    // Edges of polygon p are edges edgeStart[p] until edgeStart[p + 1]
+    private final int[] edgeStart;
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+
+    private final double[] minXs;
+    private final double[] minYs;
+    private final double[] maxXs;
+    private final double[] maxYs;
+
+    private double cellSize = 1;
+    private double minX;
+    private double minY;
+    private int columns;
+    private int rows;
+
+    // Polygons of cell c are polygonIndex[cellStart[c]] until cellStart[c + 1]
+    private int[] cellStart = new int[1];
+    private int[] polygonIndex = new int[0];
+
+    /**
+     * Build index of polygons.
+     *
+     * @param polygons
+     *            outline lines of each polygon
+     */
+    public PolygonGrid(List<List<Line>> polygons) {
+        int size = polygons.size();
+        edgeStart = new int[size + 1];
+        for (int p = 0; p < size; p++) {
+            edgeStart[p + 1] = edgeStart[p] + polygons.get(p).size();
+        }
+        int edges = edgeStart[size];
+        x1 = new double[edges];
+        y1 = new double[edges];
+        x2 = new double[edges];
+        y2 = new double[edges];
+        minXs = new double[size];
+        minYs = new double[size];
+        maxXs = new double[size];
+        maxYs = new double[size];
+
+        minX = minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double totalSize = 0;
+        int indexed = 0;
+        for (int p = 0; p < size; p++) {
+            minXs[p] = minYs[p] = Double.POSITIVE_INFINITY;
+            maxXs[p] = maxYs[p] = Double.NEGATIVE_INFINITY;
+            int edge = edgeStart[p];
+            for (Line line : polygons.get(p)) {
+                x1[edge] = line.start.getX();
+                y1[edge] = line.start.getY();
+                x2[edge] = line.end.getX();
+                y2[edge] = line.end.getY();
+                minXs[p] = Math.min(minXs[p], Math.min(x1[edge], x2[edge]));
+                minYs[p] = Math.min(minYs[p], Math.min(y1[edge], y2[edge]));
+                maxXs[p] = Math.max(maxXs[p], Math.max(x1[edge], x2[edge]));
+                maxYs[p] = Math.max(maxYs[p], Math.max(y1[edge], y2[edge]));
+                edge++;
+            }
+            if (edgeStart[p] == edgeStart[p + 1]) {
+                // Polygon without lines never contains anything
+                continue;
+            }
+            minX = Math.min(minX, minXs[p]);
+            minY = Math.min(minY, minYs[p]);
+            maxX = Math.max(maxX, maxXs[p]);
+            maxY = Math.max(maxY, maxYs[p]);
+            totalSize += (maxXs[p] - minXs[p]) + (maxYs[p] - minYs[p]);
+            indexed++;
+        }
+        if (indexed == 0) {
+            return;
+        }
+        double width = Math.max(maxX - minX, 1);
+        double height = Math.max(maxY - minY, 1);
+
+        // Cells about the size of an average polygon, but never many more
+        // cells than polygons
+        cellSize = Math.max(totalSize / 2 / indexed / CELLS_PER_POLYGON, 1);
+        long maxCells = (long) MAX_CELLS_PER_POLYGON * indexed;
+        while (((long) (width / cellSize) + 1)
+                * ((long) (height / cellSize) + 1) > maxCells) {
+            cellSize *= 2;
+        }
+        columns = (int) (width / cellSize) + 1;
+        rows = (int) (height / cellSize) + 1;
+
+        // Count entries per cell, turn counts into offsets and fill. Filling
+        // in polygon order keeps each cell list in polygon order.
+        cellStart = new int[columns * rows + 1];
+        for (int p = 0; p < size; p++) {
+            if (edgeStart[p] == edgeStart[p + 1]) {
+                continue;
+            }
+            for (int r = row(minYs[p]); r <= row(maxYs[p]); r++) {
+                for (int c = column(minXs[p]); c <= column(maxXs[p]); c++) {
+                    cellStart[r * columns + c + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        polygonIndex = new int[cellStart[columns * rows]];
+        int[] fill = new int[columns * rows];
+        for (int p = 0; p < size; p++) {
+            if (edgeStart[p] == edgeStart[p + 1]) {
+                continue;
+            }
+            for (int r = row(minYs[p]); r <= row(maxYs[p]); r++) {
+                for (int c = column(minXs[p]); c <= column(maxXs[p]); c++) {
+                    int cell = r * columns + c;
+                    polygonIndex[cellStart[cell] + fill[cell]++] = p;
+                }
+            }
+        }
+    }
+
+    private int column(double x) {
+        return clamp((int) Math.floor((x - minX) / cellSize), columns);
+    }
+
+    private int row(double y) {
+        return clamp((int) Math.floor((y - minY) / cellSize), rows);
+    }
+
+    private static int clamp(int value, int count) {
+        return value < 0 ? 0 : value >= count ? count - 1 : value;
+    }
+
+    /**
+     * @return amount of indexed polygons
+     */
+    public int size() {
+        return minXs.length;
+    }
+
+    /**
+     * Find the polygon containing a point. If polygons overlap the one given
+     * first wins.
+     *
+     * @return index of the polygon in the list given to the constructor or -1
+     *         if no polygon contains the point
+     */
+    public int locate(double x, double y) {
+        if (polygonIndex.length == 0) {
+            return -1;
+        }
+        int cell = row(y) * columns + column(x);
+        for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+            int polygon = polygonIndex[i];
+            if (x >= minXs[polygon] && x <= maxXs[polygon]
+                    && y >= minYs[polygon] && y <= maxYs[polygon]
+                    && contains(polygon, x, y)) {
+                return polygon;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Even-odd test counting edges crossed by a ray from the point towards
+     * positive x. Edges are taken as half open in y so that a ray through a
+     * shared vertex is counted once.
+     */
+    private boolean contains(int polygon, double x, double y) {
+        boolean inside = false;
+        for (int e = edgeStart[polygon]; e < edgeStart[polygon + 1]; e++) {
+            double ay = y1[e];
+            double by = y2[e];
+            if ((ay > y) != (by > y)) {
+                double crossX = x1[e] + (y - ay) * (x2[e] - x1[e]) / (by - ay);
+                if (x < crossX) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,212 @@
+package org.percepta.mgrankvi.util;
+
+import java.util.List;
+
+import org.percepta.mgrankvi.client.geometry.Line;
+import org.percepta.mgrankvi.client.geometry.LineBuffer;
+
+/**
+ * Uniform grid index of line segments, such as the walls of a floor, for
+ * answering whether a segment crosses any of them.
+ * <p>
+ * Each segment is listed in every cell its bounding box overlaps. Cells are
+ * counting sorted into one flat index array with a start offset per cell, and
+ * the segment end points are kept in flat coordinate arrays. A query only
+ * tests the segments of the cells its own bounding box overlaps, which for
+ * short queries is a handful of segments.
+ */
+public class SegmentGrid {
+
+    // Average amount of cells a segment bounding box covers on each axis
+    private static final double CELLS_PER_SEGMENT = 1.5;
+    // Upper bound for the cell count relative to the segment count
+    private static final int MAX_CELLS_PER_SEGMENT = 4;
+
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+
+    private double cellSize = 1;
+    private double minX;
+    private double minY;
+    private int columns;
+    private int rows;
+
+    // Segments of cell c are segmentIndex[cellStart[c]] until cellStart[c + 1]
+    private int[] cellStart = new int[1];
+    private int[] segmentIndex = new int[0];
+
+    /**
+     * Build index of segments.
+     *
+     * @param lines
+     *            segments to index
+     */
+    public SegmentGrid(List<Line> lines) {
+        this(LineBuffer.of(lines));
+    }
+
+    /**
+     * Build index of packed segments.
+     *
+     * @param lines
+     *            segments to index
+     */
+    public SegmentGrid(LineBuffer lines) {
+        int size = lines.size();
+        x1 = new double[size];
+        y1 = new double[size];
+        x2 = new double[size];
+        y2 = new double[size];
+        if (size == 0) {
+            return;
+        }
+
+        minX = minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        double totalLength = 0;
+        for (int i = 0; i < size; i++) {
+            x1[i] = lines.getX1(i);
+            y1[i] = lines.getY1(i);
+            x2[i] = lines.getX2(i);
+            y2[i] = lines.getY2(i);
+            minX = Math.min(minX, Math.min(x1[i], x2[i]));
+            minY = Math.min(minY, Math.min(y1[i], y2[i]));
+            maxX = Math.max(maxX, Math.max(x1[i], x2[i]));
+            maxY = Math.max(maxY, Math.max(y1[i], y2[i]));
+            totalLength += Math.abs(x2[i] - x1[i]) + Math.abs(y2[i] - y1[i]);
+        }
+        double width = Math.max(maxX - minX, 1);
+        double height = Math.max(maxY - minY, 1);
+
+        // Cells about the size of an average segment, but never many more
+        // cells than segments
+        cellSize = Math.max(totalLength / size / CELLS_PER_SEGMENT, 1);
+        long maxCells = (long) MAX_CELLS_PER_SEGMENT * size;
+        while (((long) (width / cellSize) + 1)
+                * ((long) (height / cellSize) + 1) > maxCells) {
+            cellSize *= 2;
+        }
+        columns = (int) (width / cellSize) + 1;
+        rows = (int) (height / cellSize) + 1;
+
+        // Count entries per cell, turn counts into offsets and fill
+        cellStart = new int[columns * rows + 1];
+        for (int i = 0; i < size; i++) {
+            for (int r = row(Math.min(y1[i], y2[i])); r <= row(
+                    Math.max(y1[i], y2[i])); r++) {
+                for (int c = column(Math.min(x1[i], x2[i])); c <= column(
+                        Math.max(x1[i], x2[i])); c++) {
+                    cellStart[r * columns + c + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        segmentIndex = new int[cellStart[columns * rows]];
+        int[] fill = new int[columns * rows];
+        for (int i = 0; i < size; i++) {
+            for (int r = row(Math.min(y1[i], y2[i])); r <= row(
+                    Math.max(y1[i], y2[i])); r++) {
+                for (int c = column(Math.min(x1[i], x2[i])); c <= column(
+                        Math.max(x1[i], x2[i])); c++) {
+                    int cell = r * columns + c;
+                    segmentIndex[cellStart[cell] + fill[cell]++] = i;
+                }
+            }
+        }
+    }
+
+    private int column(double x) {
+        return clamp((int) Math.floor((x - minX) / cellSize), columns);
+    }
+
+    private int row(double y) {
+        return clamp((int) Math.floor((y - minY) / cellSize), rows);
+    }
+
+    private static int clamp(int value, int count) {
+        return value < 0 ? 0 : value >= count ? count - 1 : value;
+    }
+
+    /**
+     * @return amount of indexed segments
+     */
+    public int size() {
+        return x1.length;
+    }
+
+    /**
+     * Check if the segment between two points touches or crosses any indexed
+     * segment.
+     *
+     * @return true if the segment is blocked
+     */
+    public boolean intersects(double startX, double startY, double endX,
+            double endY) {
+        if (x1.length == 0) {
+            return false;
+        }
+        double minQueryX = Math.min(startX, endX);
+        double maxQueryX = Math.max(startX, endX);
+        double minQueryY = Math.min(startY, endY);
+        double maxQueryY = Math.max(startY, endY);
+        for (int r = row(minQueryY); r <= row(maxQueryY); r++) {
+            for (int c = column(minQueryX); c <= column(maxQueryX); c++) {
+                int cell = r * columns + c;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    int segment = segmentIndex[i];
+                    if (intersects(startX, startY, endX, endY, x1[segment],
+                            y1[segment], x2[segment], y2[segment])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Segment intersection using orientation signs, counting touching end
+     * points and collinear overlap as an intersection.
+     */
+    private static boolean intersects(double ax, double ay, double bx,
+            double by, double cx, double cy, double dx, double dy) {
+        // Bounding boxes need to overlap
+        if (Math.max(ax, bx) < Math.min(cx, dx)
+                || Math.max(cx, dx) < Math.min(ax, bx)
+                || Math.max(ay, by) < Math.min(cy, dy)
+                || Math.max(cy, dy) < Math.min(ay, by)) {
+            return false;
+        }
+        int d1 = orientation(cx, cy, dx, dy, ax, ay);
+        int d2 = orientation(cx, cy, dx, dy, bx, by);
+        int d3 = orientation(ax, ay, bx, by, cx, cy);
+        int d4 = orientation(ax, ay, bx, by, dx, dy);
+        if (d1 * d2 < 0 && d3 * d4 < 0) {
+            return true;
+        }
+        return (d1 == 0 && isWithin(cx, cy, dx, dy, ax, ay))
+                || (d2 == 0 && isWithin(cx, cy, dx, dy, bx, by))
+                || (d3 == 0 && isWithin(ax, ay, bx, by, cx, cy))
+                || (d4 == 0 && isWithin(ax, ay, bx, by, dx, dy));
+    }
+
+    /**
+     * @return true if point p is inside the bounding box of segment ab
+     */
+    private static boolean isWithin(double ax, double ay, double bx,
+            double by, double px, double py) {
+        return Math.min(ax, bx) <= px && px <= Math.max(ax, bx)
+                && Math.min(ay, by) <= py && py <= Math.max(ay, by);
+    }
+
+    private static int orientation(double ax, double ay, double bx, double by,
+            double px, double py) {
+        double cross = (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+        return cross < 0 ? -1 : cross > 0 ? 1 : 0;
+    }
+}
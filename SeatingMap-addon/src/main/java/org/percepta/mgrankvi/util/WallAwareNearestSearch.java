@@ -0,0 +1,103 @@
+package org.percepta.mgrankvi.util;
+
+import java.util.List;
+
+import org.percepta.mgrankvi.client.geometry.Point;
+import org.percepta.mgrankvi.path.Node;
+
+/**
+ * Nearest search that prefers nodes in line of sight.
+ * <p>
+ * Candidates are taken from the wrapped search in order of distance and the
+ * first one whose straight line from the query point does not touch a wall is
+ * returned. Walls are checked through a {@link SegmentGrid}, so each candidate
+ * costs a few segment tests. If none of the closest candidates is visible,
+ * for example when the query point is inside a closed room, the plain nearest
+ * node is returned.
+ */
+public class WallAwareNearestSearch implements NearestSearch {
+
+    public static final int DEFAULT_MAXIMUM_CANDIDATES = 32;
+    // Candidates fetched on the first round, doubled on each further round
+    private static final int FIRST_ROUND = 4;
+
+    private final NearestSearch nearestSearch;
+    private final SegmentGrid walls;
+    private final int maximumCandidates;
+
+    /**
+     * @param nearestSearch
+     *            search to take candidates from, nodes need to be set already
+     *            or through this search
+     * @param walls
+     *            index of wall segments
+     */
+    public WallAwareNearestSearch(NearestSearch nearestSearch,
+            SegmentGrid walls) {
+        this(nearestSearch, walls, DEFAULT_MAXIMUM_CANDIDATES);
+    }
+
+    /**
+     * @param nearestSearch
+     *            search to take candidates from, nodes need to be set already
+     *            or through this search
+     * @param walls
+     *            index of wall segments
+     * @param maximumCandidates
+     *            amount of closest nodes to check before falling back to the
+     *            nearest node
+     */
+    public WallAwareNearestSearch(NearestSearch nearestSearch,
+            SegmentGrid walls, int maximumCandidates) {
+        this.nearestSearch = nearestSearch;
+        this.walls = walls;
+        this.maximumCandidates = maximumCandidates;
+    }
+
+    @Override
+    public void setNodes(List<Node> nodes) {
+        nearestSearch.setNodes(nodes);
+    }
+
+    @Override
+    public Node getNearest(Point centerPoint) {
+        int checked = 0;
+        List<Node> candidates = null;
+        for (int k = Math.min(FIRST_ROUND, maximumCandidates); checked < k; k = Math
+                .min(k * 2, maximumCandidates)) {
+            candidates = nearestSearch.getKNearest(centerPoint, k);
+            for (; checked < candidates.size(); checked++) {
+                Node candidate = candidates.get(checked);
+                if (isVisible(centerPoint, candidate.getPosition())) {
+                    return candidate;
+                }
+            }
+            if (candidates.size() < k) {
+                // No more nodes to fetch
+                break;
+            }
+        }
+        if (candidates != null && !candidates.isEmpty()) {
+            return candidates.get(0);
+        }
+        return nearestSearch.getNearest(centerPoint);
+    }
+
+    /**
+     * @return true if no wall touches the straight line between the points
+     */
+    public boolean isVisible(Point from, Point to) {
+        return !walls.intersects(from.getX(), from.getY(), to.getX(),
+                to.getY());
+    }
+
+    @Override
+    public List<Node> getKNearest(Point point, int k) {
+        return nearestSearch.getKNearest(point, k);
+    }
+
+    @Override
+    public List<Node> getWithinRadius(Point point, double radius) {
+        return nearestSearch.getWithinRadius(point, radius);
+    }
+}
@@ -0,0 +1,138 @@
+package org.percepta.mgrankvi.benchmark;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.percepta.mgrankvi.path.ContractionHierarchy;
+import org.percepta.mgrankvi.path.GraphDijkstra;
+import org.percepta.mgrankvi.path.Node;
+import org.percepta.mgrankvi.path.PathGraph;
+import org.percepta.mgrankvi.path.SearchState;
+
+/**
+ * Query latency of a contraction hierarchy next to plain Dijkstra for random
+ * routes in a synthetic 10 floor building. Preprocessing time is printed
+ * during setup, and setup fails if hierarchy routes are not as short as the
+ * Dijkstra routes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContractionHierarchyBenchmark {
+
+    private static final int ROUTES = 1 << 16;
+    // Routes compared against Dijkstra in setup
+    private static final int VERIFIED_ROUTES = 1000;
+
+    @Param({ "20", "40" })
+    public int gridSize;
+
+    private PathGraph graph;
+    private ContractionHierarchy hierarchy;
+    private int[] sources;
+    private int[] targets;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<Node> nodes = SyntheticGraphs.multiFloorGrid(10, gridSize,
+                gridSize, 4, 42);
+        graph = PathGraph.build(nodes);
+        long start = System.nanoTime();
+        hierarchy = ContractionHierarchy.build(graph);
+        System.out.printf("%nPreprocessed %d nodes in %d ms, %d shortcuts%n",
+                graph.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                hierarchy.getShortcutCount());
+
+        Random random = new Random(7);
+        sources = new int[ROUTES];
+        targets = new int[ROUTES];
+        for (int i = 0; i < ROUTES; i++) {
+            sources[i] = random.nextInt(graph.size());
+            targets[i] = random.nextInt(graph.size());
+        }
+        verify();
+    }
+
+    /**
+     * Compare the lengths of hierarchy routes with Dijkstra distances.
+     */
+    private void verify() {
+        for (int i = 0; i < VERIFIED_ROUTES; i++) {
+            double expected;
+            SearchState state = graph.acquireState();
+            try {
+                GraphDijkstra.computePaths(graph, state, sources[i],
+                        targets[i]);
+                expected = state.isReached(targets[i])
+                        ? state.getDistance(targets[i])
+                        : Double.POSITIVE_INFINITY;
+            } finally {
+                graph.releaseState(state);
+            }
+            double actual = length(
+                    hierarchy.getShortestPath(sources[i], targets[i]));
+            if (Math.abs(actual - expected) > 1e-6 * Math.max(1, expected)) {
+                throw new IllegalStateException(String.format(
+                        "Hierarchy route %d -> %d has length %f, Dijkstra %f",
+                        sources[i], targets[i], actual, expected));
+            }
+        }
+    }
+
+    /**
+     * @return length of path over graph links, infinite for an empty path
+     */
+    private double length(List<Node> path) {
+        if (path.isEmpty()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double length = 0;
+        int previous = -1;
+        for (Node node : path) {
+            int current = graph.indexOf(node.getId());
+            if (previous != -1) {
+                double weight = Double.POSITIVE_INFINITY;
+                for (int e = graph.firstLink(previous); e < graph
+                        .lastLink(previous); e++) {
+                    if (graph.linkTarget(e) == current) {
+                        weight = Math.min(weight, graph.linkWeight(e));
+                    }
+                }
+                length += weight;
+            }
+            previous = current;
+        }
+        return length;
+    }
+
+    @Benchmark
+    public LinkedList<Node> dijkstra() {
+        int route = next++ & (ROUTES - 1);
+        return GraphDijkstra.getShortestPath(graph, sources[route],
+                targets[route]);
+    }
+
+    @Benchmark
+    public LinkedList<Node> contractionHierarchy() {
+        int route = next++ & (ROUTES - 1);
+        return hierarchy.getShortestPath(sources[route], targets[route]);
+    }
+}
@@ -0,0 +1,101 @@
+package org.percepta.mgrankvi.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.percepta.mgrankvi.client.geometry.Line;
+import org.percepta.mgrankvi.client.geometry.Point;
+
+/**
+ * Cost of hashing and comparing {@link Point} and {@link Line} in the way the
+ * geometry and image import code uses them. Run with {@code -prof gc} to see
+ * the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeometryBenchmark {
+
+    private static final int LINES = 1000;
+
+    private List<Line> lines;
+    // Equal but not identical copies of every tenth line
+    private List<Line> probes;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(5);
+        // End points on a coarse grid so that lines share them
+        lines = new ArrayList<>(LINES);
+        for (int i = 0; i < LINES; i++) {
+            lines.add(new Line(
+                    new Point(random.nextInt(100) * 10, random.nextInt(100) * 10),
+                    new Point(random.nextInt(100) * 10,
+                            random.nextInt(100) * 10)));
+        }
+        probes = new ArrayList<>(LINES / 10);
+        for (int i = 0; i < LINES; i += 10) {
+            Line line = lines.get(i);
+            probes.add(new Line(new Point(line.start), new Point(line.end)));
+        }
+    }
+
+    /**
+     * Unique end points as collected by Calculations.getUniqueAngles.
+     */
+    @Benchmark
+    public int uniquePoints() {
+        Set<Point> points = new HashSet<>();
+        for (Line line : lines) {
+            points.add(line.start);
+            points.add(line.end);
+        }
+        return points.size();
+    }
+
+    /**
+     * Duplicate check of a line list as done by ImageToLines.
+     */
+    @Benchmark
+    public int listContains() {
+        int found = 0;
+        for (Line probe : probes) {
+            if (lines.contains(probe)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Set of lines built from equal copies.
+     */
+    @Benchmark
+    public int lineSet() {
+        Set<Line> set = new HashSet<>(lines);
+        int found = 0;
+        for (Line probe : probes) {
+            if (set.contains(probe)) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,103 @@
+package org.percepta.mgrankvi.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.percepta.mgrankvi.client.geometry.Point;
+import org.percepta.mgrankvi.path.Node;
+import org.percepta.mgrankvi.util.NearestSearch;
+
+/**
+ * Nearest node query latency of the nearest search implementations for the
+ * node distributions of {@link SyntheticNodes}.
+ * <p>
+ * Setup prints the build time and the heap retained by the search, and
+ * cross-checks the search against brute force with
+ * {@link NearestSearchOracle} so that a wrong implementation fails instead
+ * of reporting a fast time. Other implementations can be measured by passing
+ * their class name, for example {@code -p implementation=com.example.MySearch}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class NearestSearchBenchmark {
+
+    // Precomputed query points, cycled through by the benchmark
+    private static final int QUERIES = 1 << 16;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int nodeCount;
+
+    @Param({ SyntheticNodes.UNIFORM, SyntheticNodes.CORRIDORS,
+            SyntheticNodes.CAMPUS })
+    public String distribution;
+
+    @Param({ "PathMatrix", "KdTreeSearch", "DynamicKdTreeSearch" })
+    public String implementation;
+
+    private NearestSearch search;
+    private Point[] queries;
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<Node> nodes = SyntheticNodes.generate(distribution, nodeCount,
+                42);
+        long before = usedHeap();
+        long start = System.nanoTime();
+        search = NearestSearchOracle.create(implementation);
+        search.setNodes(nodes);
+        long buildTime = System.nanoTime() - start;
+        long retained = usedHeap() - before;
+        System.out.printf(
+                "%nBuilt %s for %d %s nodes in %d ms, retaining about %d kB (%d bytes per node)%n",
+                implementation, nodeCount, distribution,
+                TimeUnit.NANOSECONDS.toMillis(buildTime), retained / 1024,
+                retained / nodeCount);
+
+        NearestSearchOracle.verify(search, nodes, 100, 5);
+
+        // Query points among the nodes, taken from node positions with an
+        // offset so that both dense and empty areas are queried
+        Random random = new Random(7);
+        queries = new Point[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            Point position = nodes.get(random.nextInt(nodeCount)).getPosition();
+            queries[i] = new Point(position.getX() + random.nextGaussian() * 50,
+                    position.getY() + random.nextGaussian() * 50);
+        }
+    }
+
+    /**
+     * @return used heap after garbage collection in bytes
+     */
+    static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    @Benchmark
+    public Node getNearest() {
+        return search.getNearest(queries[next++ & (QUERIES - 1)]);
+    }
+}
@@ -0,0 +1,56 @@
+package org.percepta.mgrankvi.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.percepta.mgrankvi.path.Node;
+import org.percepta.mgrankvi.util.NearestSearch;
+
+/**
+ * {@link NearestSearch#setNodes(List)} time of the nearest search
+ * implementations for the node distributions of {@link SyntheticNodes}. Each
+ * invocation builds a new search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class NearestSearchBuildBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int nodeCount;
+
+    @Param({ SyntheticNodes.UNIFORM, SyntheticNodes.CORRIDORS,
+            SyntheticNodes.CAMPUS })
+    public String distribution;
+
+    @Param({ "PathMatrix", "KdTreeSearch", "DynamicKdTreeSearch" })
+    public String implementation;
+
+    private List<Node> nodes;
+
+    @Setup
+    public void setup() {
+        nodes = SyntheticNodes.generate(distribution, nodeCount, 42);
+    }
+
+    @Benchmark
+    public NearestSearch setNodes() {
+        NearestSearch search = NearestSearchOracle.create(implementation);
+        search.setNodes(nodes);
+        return search;
+    }
+}
@@ -0,0 +1,215 @@
+package org.percepta.mgrankvi.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.percepta.mgrankvi.client.geometry.Point;
+import org.percepta.mgrankvi.path.Node;
+import org.percepta.mgrankvi.util.DynamicKdTreeSearch;
+import org.percepta.mgrankvi.util.KdTreeSearch;
+import org.percepta.mgrankvi.util.NearestSearch;
+import org.percepta.mgrankvi.util.PathMatrix;
+
+/**
+ * Brute force cross-check of {@link NearestSearch} implementations.
+ * <p>
+ * Queries are random points around the nodes and the node positions
+ * themselves. For each query the distances of the nearest node, the k nearest
+ * nodes and the nodes within a radius are compared with a linear scan over
+ * all nodes. Distances are compared rather than nodes so that ties may be
+ * broken either way.
+ * <p>
+ * Run {@link #main(String[])} to check the built-in implementations, or pass
+ * class names of other implementations to check those.
+ */
+public class NearestSearchOracle {
+
+    public static final String[] IMPLEMENTATIONS = { "PathMatrix",
+            "KdTreeSearch", "DynamicKdTreeSearch" };
+
+    private static final int K = 8;
+
+    /**
+     * Create a search by short name of a built-in implementation or by fully
+     * qualified class name.
+     *
+     * @param implementation
+     *            implementation name
+     * @return new empty search
+     */
+    public static NearestSearch create(String implementation) {
+        switch (implementation) {
+        case "PathMatrix":
+            return new PathMatrix();
+        case "KdTreeSearch":
+            return new KdTreeSearch();
+        case "DynamicKdTreeSearch":
+            return new DynamicKdTreeSearch();
+        default:
+            try {
+                return Class.forName(implementation)
+                        .asSubclass(NearestSearch.class)
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException(String.format(
+                        "Can't create nearest search '%s'", implementation),
+                        e);
+            }
+        }
+    }
+
+    /**
+     * Compare search results with brute force.
+     *
+     * @param search
+     *            search with nodes already set
+     * @param nodes
+     *            the nodes given to the search
+     * @param queries
+     *            amount of random query points, the same amount of node
+     *            positions is queried as well
+     * @param seed
+     *            random seed for query points
+     * @throws IllegalStateException
+     *             describing the first mismatch
+     */
+    public static void verify(NearestSearch search, List<Node> nodes,
+            int queries, long seed) {
+        double[] xs = new double[nodes.size()];
+        double[] ys = new double[nodes.size()];
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = nodes.get(i).getPosition().getX();
+            ys[i] = nodes.get(i).getPosition().getY();
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        if (xs.length == 0) {
+            minX = minY = 0;
+            maxX = maxY = 100;
+        }
+        // Reach a tenth outside the nodes to test the borders as well
+        double marginX = (maxX - minX) / 10 + 1;
+        double marginY = (maxY - minY) / 10 + 1;
+
+        Random random = new Random(seed);
+        double[] distances = new double[xs.length];
+        for (int q = 0; q < 2 * queries; q++) {
+            Point query;
+            if (q % 2 == 0 || xs.length == 0) {
+                double width = maxX - minX + 2 * marginX;
+                double height = maxY - minY + 2 * marginY;
+                query = new Point(minX - marginX + random.nextDouble() * width,
+                        minY - marginY + random.nextDouble() * height);
+            } else {
+                query = new Point(nodes.get(random.nextInt(xs.length))
+                        .getPosition());
+            }
+            for (int i = 0; i < xs.length; i++) {
+                distances[i] = distance(xs[i], ys[i], query);
+            }
+            double[] sorted = distances.clone();
+            Arrays.sort(sorted);
+
+            Node nearest = search.getNearest(query);
+            double expected = sorted.length == 0 ? Double.NaN : sorted[0];
+            double actual = nearest == null ? Double.NaN
+                    : distance(nearest, query);
+            check(search, "getNearest", query, expected, actual);
+
+            List<Node> kNearest = search.getKNearest(query, K);
+            check(search, "getKNearest size", query,
+                    Math.min(K, sorted.length), kNearest.size());
+            for (int i = 0; i < kNearest.size(); i++) {
+                check(search, "getKNearest #" + i, query, sorted[i],
+                        distance(kNearest.get(i), query));
+            }
+
+            // Radius between the k:th and the next node so that rounding
+            // can't decide whether a node is inside
+            double radius = sorted.length == 0 ? 10
+                    : sorted.length <= K ? sorted[sorted.length - 1] + 1
+                            : (sorted[K - 1] + sorted[K]) / 2;
+            List<Node> within = search.getWithinRadius(query, radius);
+            int inside = 0;
+            while (inside < sorted.length && sorted[inside] <= radius) {
+                inside++;
+            }
+            check(search, "getWithinRadius size", query, inside,
+                    within.size());
+            for (int i = 0; i < within.size(); i++) {
+                check(search, "getWithinRadius #" + i, query, sorted[i],
+                        distance(within.get(i), query));
+            }
+        }
+    }
+
+    private static double distance(Node node, Point query) {
+        return distance(node.getPosition().getX(), node.getPosition().getY(),
+                query);
+    }
+
+    private static double distance(double x, double y, Point query) {
+        return Math.hypot(x - query.getX(), y - query.getY());
+    }
+
+    private static void check(NearestSearch search, String what, Point query,
+            double expected, double actual) {
+        boolean same = Double.isNaN(expected) ? Double.isNaN(actual)
+                : Math.abs(expected - actual) <= 1e-9 * Math.max(1, expected);
+        if (!same) {
+            throw new IllegalStateException(String.format(
+                    "%s %s at (%f, %f) gave %s, brute force %s",
+                    search.getClass().getSimpleName(), what, query.getX(),
+                    query.getY(), actual, expected));
+        }
+    }
+
+    /**
+     * Check implementations on every node distribution.
+     *
+     * @param args
+     *            implementations to check, short or fully qualified class
+     *            names, all built-in ones if empty
+     */
+    public static void main(String[] args) {
+        String[] implementations = args.length > 0 ? args : IMPLEMENTATIONS;
+        int[] sizes = { 0, 1, 2, 50, 5000, 100000 };
+        String[] distributions = { SyntheticNodes.UNIFORM,
+                SyntheticNodes.CORRIDORS, SyntheticNodes.CAMPUS };
+        List<String> failures = new ArrayList<>();
+        for (String implementation : implementations) {
+            for (String distribution : distributions) {
+                for (int size : sizes) {
+                    List<Node> nodes = SyntheticNodes.generate(distribution,
+                            size, size);
+                    try {
+                        NearestSearch search = create(implementation);
+                        search.setNodes(nodes);
+                        verify(search, nodes, size > 10000 ? 200 : 1000, 3);
+                    } catch (IllegalStateException e) {
+                        failures.add(e.getMessage());
+                    } catch (RuntimeException e) {
+                        failures.add(String.format("%s threw %s for %d %s nodes",
+                                implementation, e, size, distribution));
+                    }
+                }
+            }
+            System.out.printf("%s checked%n", implementation);
+        }
+        failures.forEach(System.out::println);
+        System.out.println(
+                failures.isEmpty() ? "All implementations agree with brute force"
+                        : failures.size() + " checks failed");
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.percepta.mgrankvi.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.percepta.mgrankvi.FloorMap;
+import org.percepta.mgrankvi.Room;
+import org.percepta.mgrankvi.Table;
+import org.percepta.mgrankvi.client.geometry.Line;
+import org.percepta.mgrankvi.client.geometry.Point;
+import org.percepta.mgrankvi.occupancy.OccupancyTracker;
+
+/**
+ * Position fix throughput of {@link OccupancyTracker}: fixes are offered in
+ * batches and processed by the consumer, as a scheduled consumer would see
+ * them. Run {@link #main(String[])} for a sustained load test with a producer
+ * thread at a fixed event rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OccupancyBenchmark {
+
+    private static final int BATCH = 1024;
+    private static final double TABLE_SIZE = 80;
+    private static final double TABLE_SPACING = 120;
+
+    @Param({ "1000", "10000" })
+    public int tableCount;
+
+    private OccupancyTracker tracker;
+    private SyntheticFixes fixes;
+    private long now;
+
+    @Setup
+    public void setup() {
+        List<FloorMap> floors = officeFloors(4, tableCount / 4);
+        tracker = new OccupancyTracker(floors, 60000, 500);
+        fixes = new SyntheticFixes(4, tableCount / 4, 5000, 11);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int offerAndProcess() {
+        for (int i = 0; i < BATCH; i++) {
+            fixes.next();
+            tracker.offer(fixes.floor, fixes.x, fixes.y, fixes.device);
+        }
+        now += 20;
+        return tracker.process(now);
+    }
+
+    /**
+     * Build floors of rooms holding a square grid of tables each.
+     *
+     * @param floorCount
+     *            amount of floors, levels run from 0
+     * @param tablesPerFloor
+     *            tables on each floor
+     * @return floors with rooms of up to 100 tables
+     */
+    public static List<FloorMap> officeFloors(int floorCount,
+            int tablesPerFloor) {
+        int columns = (int) Math.ceil(Math.sqrt(tablesPerFloor));
+        List<FloorMap> floors = new ArrayList<>(floorCount);
+        for (int level = 0; level < floorCount; level++) {
+            FloorMap floor = new FloorMap(level);
+            // Rooms of 10x10 table slots
+            int roomColumns = (columns + 9) / 10;
+            Room[] rooms = new Room[roomColumns * roomColumns];
+            for (int i = 0; i < tablesPerFloor; i++) {
+                int column = i % columns;
+                int row = i / columns;
+                int roomIndex = row / 10 * roomColumns + column / 10;
+                if (rooms[roomIndex] == null) {
+                    double roomX = column / 10 * 10 * TABLE_SPACING;
+                    double roomY = row / 10 * 10 * TABLE_SPACING;
+                    rooms[roomIndex] = floor.addRoom(rectangle(roomX, roomY,
+                            10 * TABLE_SPACING, 10 * TABLE_SPACING));
+                }
+                Table table = new Table(
+                        rectangle(column * TABLE_SPACING + 20,
+                                row * TABLE_SPACING + 20, TABLE_SIZE,
+                                TABLE_SIZE));
+                rooms[roomIndex].addComponent(table);
+            }
+            floors.add(floor);
+        }
+        return floors;
+    }
+
+    private static List<Line> rectangle(double x, double y, double width,
+            double height) {
+        Point a = new Point(x, y);
+        Point b = new Point(x + width, y);
+        Point c = new Point(x + width, y + height);
+        Point d = new Point(x, y + height);
+        return new ArrayList<>(Arrays.asList(new Line(a, b), new Line(b, c),
+                new Line(c, d), new Line(d, a)));
+    }
+
+    /**
+     * Random walk of devices over the table grid of {@link #officeFloors}.
+     * Most fixes land on the device's own table with some jitter, some on the
+     * corridors between tables.
+     */
+    public static class SyntheticFixes {
+
+        public int floor;
+        public double x;
+        public double y;
+        public long device;
+
+        private final Random random;
+        private final int floors;
+        private final double side;
+        private final int[] deviceTable;
+        private final int tablesPerFloor;
+        private final int columns;
+
+        public SyntheticFixes(int floors, int tablesPerFloor, int devices,
+                long seed) {
+            random = new Random(seed);
+            this.floors = floors;
+            this.tablesPerFloor = tablesPerFloor;
+            columns = (int) Math.ceil(Math.sqrt(tablesPerFloor));
+            side = columns * TABLE_SPACING;
+            deviceTable = new int[devices];
+            for (int i = 0; i < devices; i++) {
+                deviceTable[i] = random.nextInt(floors * tablesPerFloor);
+            }
+        }
+
+        /**
+         * Generate the next fix into the public fields.
+         */
+        public void next() {
+            device = random.nextInt(deviceTable.length);
+            int roll = random.nextInt(100);
+            if (roll < 2) {
+                // Device moves to another table
+                deviceTable[(int) device] = random
+                        .nextInt(floors * tablesPerFloor);
+            }
+            if (roll < 90) {
+                int table = deviceTable[(int) device];
+                floor = table / tablesPerFloor;
+                int index = table % tablesPerFloor;
+                x = index % columns * TABLE_SPACING + 20
+                        + random.nextDouble() * TABLE_SIZE;
+                y = index / columns * TABLE_SPACING + 20
+                        + random.nextDouble() * TABLE_SIZE;
+            } else {
+                floor = random.nextInt(floors);
+                x = random.nextDouble() * side;
+                y = random.nextDouble() * side;
+            }
+        }
+    }
+
+    /**
+     * Sustained load test: a producer thread offers fixes at a fixed rate
+     * while the tracker runs every 10 ms on a scheduled thread.
+     *
+     * @param args
+     *            optional events per second, seconds to run and table count
+     */
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int tables = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+        List<FloorMap> floors = officeFloors(4, tables / 4);
+        OccupancyTracker tracker = new OccupancyTracker(floors, 5000, 500);
+        ScheduledExecutorService consumer = Executors
+                .newSingleThreadScheduledExecutor();
+        AtomicLong processed = new AtomicLong();
+        consumer.scheduleWithFixedDelay(
+                () -> processed.addAndGet(
+                        tracker.process(System.currentTimeMillis())),
+                10, 10, TimeUnit.MILLISECONDS);
+
+        SyntheticFixes fixes = new SyntheticFixes(4, tables / 4, 5000, 11);
+        long offered = 0;
+        long dropped = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            // Offer what the rate allows so far, then yield a little
+            long due = (now - start) * rate / 1000000000L;
+            for (; offered < due; offered++) {
+                fixes.next();
+                if (!tracker.offer(fixes.floor, fixes.x, fixes.y,
+                        fixes.device)) {
+                    dropped++;
+                }
+            }
+            Thread.sleep(1);
+        }
+        consumer.shutdown();
+        consumer.awaitTermination(1, TimeUnit.SECONDS);
+        processed.addAndGet(tracker.process(System.currentTimeMillis()));
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long occupied = floors.stream().flatMap(f -> f.getTables().stream())
+                .filter(Table::isOccupied).count();
+        System.out.printf(
+                "Offered %d fixes in %.1f s (%.0f/s), processed %d, dropped %d, %d of %d tables occupied%n",
+                offered, elapsed, offered / elapsed, processed.get(), dropped,
+                occupied, tables);
+    }
+}
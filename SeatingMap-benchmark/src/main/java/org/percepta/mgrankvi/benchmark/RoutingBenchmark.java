@@ -0,0 +1,89 @@
+package org.percepta.mgrankvi.benchmark;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.percepta.mgrankvi.path.AStar;
+import org.percepta.mgrankvi.path.BidirectionalDijkstra;
+import org.percepta.mgrankvi.path.Dijkstra;
+import org.percepta.mgrankvi.path.FloorHierarchy;
+import org.percepta.mgrankvi.path.GraphDijkstra;
+import org.percepta.mgrankvi.path.Node;
+import org.percepta.mgrankvi.path.PathGraph;
+
+/**
+ * Route from one corner of the bottom floor to the opposite corner of the top
+ * floor of a synthetic 10 floor building.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoutingBenchmark {
+
+    @Param({ "40", "100" })
+    public int gridSize;
+
+    private List<Node> nodes;
+    private PathGraph graph;
+    private FloorHierarchy hierarchy;
+    private Node sourceNode;
+    private Node targetNode;
+    private int source;
+    private int target;
+
+    @Setup
+    public void setup() {
+        nodes = SyntheticGraphs.multiFloorGrid(10, gridSize, gridSize, 4, 42);
+        graph = PathGraph.build(nodes);
+        hierarchy = FloorHierarchy.build(graph);
+        sourceNode = nodes.get(0);
+        targetNode = nodes.get(nodes.size() - 1);
+        source = graph.indexOf(sourceNode.getId());
+        target = graph.indexOf(targetNode.getId());
+    }
+
+    @Benchmark
+    public LinkedList<Node> legacyDijkstra() {
+        for (Node node : nodes) {
+            node.minDistance = Double.POSITIVE_INFINITY;
+            node.previous = null;
+        }
+        Dijkstra.computePaths(sourceNode);
+        return Dijkstra.getShortestPathTo(targetNode);
+    }
+
+    @Benchmark
+    public LinkedList<Node> graphDijkstra() {
+        return GraphDijkstra.getShortestPath(graph, source, target);
+    }
+
+    @Benchmark
+    public LinkedList<Node> aStar() {
+        return AStar.getShortestPath(graph, source, target);
+    }
+
+    @Benchmark
+    public LinkedList<Node> bidirectional() {
+        return BidirectionalDijkstra.getShortestPath(graph, source, target);
+    }
+
+    @Benchmark
+    public LinkedList<Node> hierarchical() {
+        return hierarchy.getShortestPath(source, target);
+    }
+}
@@ -0,0 +1,67 @@
+package org.percepta.mgrankvi.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.percepta.mgrankvi.client.geometry.Point;
+import org.percepta.mgrankvi.path.Node;
+
+/**
+ * Generators for synthetic path graphs used by the benchmarks.
+ */
+public class SyntheticGraphs {
+
+    /**
+     * Build a building with corridor grids on every floor. Neighbouring grid
+     * nodes are linked with weight 1 and the floors are connected through
+     * stair portals at random grid positions.
+     *
+     * @param floors
+     *            amount of floors
+     * @param columns
+     *            grid nodes per row
+     * @param rows
+     *            grid rows per floor
+     * @param portals
+     *            stair portals between each pair of consecutive floors
+     * @param seed
+     *            random seed for portal placement
+     * @return nodes with floor stored in {@link Node#level}, ids run from 0
+     *         floor by floor, row by row
+     */
+    public static List<Node> multiFloorGrid(int floors, int columns, int rows,
+            int portals, long seed) {
+        Random random = new Random(seed);
+        int spacing = 50;
+        int perFloor = columns * rows;
+        List<Node> nodes = new ArrayList<>(floors * perFloor);
+
+        for (int floor = 0; floor < floors; floor++) {
+            for (int row = 0; row < rows; row++) {
+                for (int column = 0; column < columns; column++) {
+                    Node node = new Node(nodes.size(),
+                            new Point(column * spacing, row * spacing));
+                    node.level = floor;
+                    nodes.add(node);
+                    if (column > 0) {
+                        node.connectNodes(nodes.get(nodes.size() - 2), 1);
+                    }
+                    if (row > 0) {
+                        node.connectNodes(nodes.get(nodes.size() - 1 - columns),
+                                1);
+                    }
+                }
+            }
+            if (floor > 0) {
+                for (int i = 0; i < portals; i++) {
+                    int position = random.nextInt(perFloor);
+                    Node upper = nodes.get(floor * perFloor + position);
+                    Node lower = nodes.get((floor - 1) * perFloor + position);
+                    upper.connectNodes(lower, 5);
+                }
+            }
+        }
+        return nodes;
+    }
+}
@@ -0,0 +1,112 @@
+package org.percepta.mgrankvi.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.percepta.mgrankvi.client.geometry.Point;
+import org.percepta.mgrankvi.path.Node;
+
+/**
+ * Generators for unlinked node sets used by the nearest search benchmarks.
+ * All sets keep about ten nodes per 100px square where there are nodes at
+ * all, so that their size is comparable between distributions.
+ */
+public class SyntheticNodes {
+
+    public static final String UNIFORM = "uniform";
+    public static final String CORRIDORS = "corridors";
+    public static final String CAMPUS = "campus";
+
+    /**
+     * Create nodes of the named distribution.
+     *
+     * @param distribution
+     *            one of {@link #UNIFORM}, {@link #CORRIDORS} or {@link #CAMPUS}
+     * @param count
+     *            amount of nodes
+     * @param seed
+     *            random seed
+     * @return nodes with ids from 0 to count - 1
+     */
+    public static List<Node> generate(String distribution, int count,
+            long seed) {
+        switch (distribution) {
+        case UNIFORM:
+            return uniform(count, seed);
+        case CORRIDORS:
+            return corridors(count, seed);
+        case CAMPUS:
+            return campus(count, seed);
+        default:
+            throw new IllegalArgumentException(String
+                    .format("Unknown node distribution '%s'", distribution));
+        }
+    }
+
+    /**
+     * Nodes at random positions in a square.
+     */
+    public static List<Node> uniform(int count, long seed) {
+        Random random = new Random(seed);
+        double side = 100 * Math.sqrt(count / 10.);
+        List<Node> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            nodes.add(new Node(i, new Point(random.nextDouble() * side,
+                    random.nextDouble() * side)));
+        }
+        return nodes;
+    }
+
+    /**
+     * Nodes along a grid of horizontal and vertical corridors 500px apart,
+     * every 10px with a little sideways jitter, like path nodes of office
+     * floors. Most of the area is empty between the corridors.
+     */
+    public static List<Node> corridors(int count, long seed) {
+        Random random = new Random(seed);
+        double spacing = 500;
+        // Corridor length per node is 10px, two corridors per grid line
+        int lines = Math.max(1,
+                (int) Math.ceil(Math.sqrt(count * 10 / spacing / 2)));
+        double side = lines * spacing;
+        List<Node> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double along = random.nextDouble() * side;
+            double across = random.nextInt(lines) * spacing
+                    + random.nextGaussian() * 5;
+            Point position = random.nextBoolean() ? new Point(along, across)
+                    : new Point(across, along);
+            nodes.add(new Node(i, position));
+        }
+        return nodes;
+    }
+
+    /**
+     * Dense buildings of about 1000 nodes scattered over an area a hundred
+     * times larger than their total size, like a campus with outdoor paths
+     * left out.
+     */
+    public static List<Node> campus(int count, long seed) {
+        Random random = new Random(seed);
+        int buildingSize = 1000;
+        int buildings = Math.max(1, count / buildingSize);
+        double buildingSide = 100 * Math.sqrt(buildingSize / 10.);
+        double side = buildingSide * Math.sqrt(buildings) * 10;
+        double[] buildingX = new double[buildings];
+        double[] buildingY = new double[buildings];
+        for (int b = 0; b < buildings; b++) {
+            buildingX[b] = random.nextDouble() * (side - buildingSide);
+            buildingY[b] = random.nextDouble() * (side - buildingSide);
+        }
+        List<Node> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int b = random.nextInt(buildings);
+            nodes.add(new Node(i,
+                    new Point(buildingX[b] + random.nextDouble() * buildingSide,
+                            buildingY[b]
+                                    + random.nextDouble() * buildingSide)));
+        }
+        return nodes;
+    }
+}